@@ -0,0 +1,82 @@
+package com.company;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmarks of inference on synthetic data: the latency of one input run through a model, the time per input of
+// batched evaluation, and the same for an int8 quantized copy of the model. Run with
+//     mvn -Pjmh verify -DskipTests -Djmh.args=InferenceBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class InferenceBenchmark
+{
+    // number of synthetic samples evaluated by the batched benchmarks
+    private static final int DATASET_SIZE = 10000;
+
+    // number of inputs used to calibrate the quantized model
+    private static final int CALIBRATION_SIZE = 1000;
+
+    // mid layers of the topology benchmarked as <nodes>x<layers>, between 784 inputs and 10 outputs
+    @Param({"15x1", "100x1", "300x2"})
+    public String midLayers;
+
+    @Param({"DOUBLE", "SINGLE"})
+    public Precision precision;
+
+    private NetworkModel model;
+    private QuantizedModel quantizedModel;
+    private NetworkInput[] dataset;
+    private BatchWorkspace workspace;
+    private double[] input, outputs;
+
+    @Setup
+    public void Setup()
+    {
+        String[] shape = midLayers.split("x");
+        NeuralNetwork network = new NeuralNetwork(784, Integer.parseInt(shape[1]), Integer.parseInt(shape[0]), 10, 1, precision);
+        model = network.CreateModel();
+        dataset = NetworkBenchmark.CreateDataset(DATASET_SIZE, 784, 1);
+        quantizedModel = model.Quantize(Arrays.copyOf(dataset, CALIBRATION_SIZE));
+        workspace = model.CreateWorkspace(NetworkModel.BATCH_SIZE);
+
+        input = new double[784];
+        dataset[0].ReadInputValues(input);
+        outputs = new double[model.GetNumOutputs()];
+    }
+
+    // one input run forward, returning its prediction and output activations
+    @Benchmark
+    public void Predict(Blackhole blackhole)
+    {
+        blackhole.consume(model.Predict(input, outputs));
+        blackhole.consume(outputs);
+    }
+
+    // every input of the dataset run forward in batches through one workspace, reported per input
+    @Benchmark
+    @OperationsPerInvocation(DATASET_SIZE)
+    public void TestModel(Blackhole blackhole)
+    {
+        blackhole.consume(model.TestModel(dataset, workspace));
+    }
+
+    // one input run forward through the quantized model
+    @Benchmark
+    public void PredictQuantized(Blackhole blackhole)
+    {
+        blackhole.consume(quantizedModel.Predict(input));
+    }
+
+    // every input of the dataset run forward through the quantized model, reported per input
+    @Benchmark
+    @OperationsPerInvocation(DATASET_SIZE)
+    public void TestQuantized(Blackhole blackhole)
+    {
+        blackhole.consume(quantizedModel.TestModel(dataset));
+    }
+}
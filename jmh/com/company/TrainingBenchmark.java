@@ -0,0 +1,104 @@
+package com.company;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmarks of training on synthetic data: one back propagation of a case already run forward, and one
+// mini-batch training step on the calling thread for each mini-batch size. Run with
+//     mvn -Pjmh verify -DskipTests -Djmh.args=TrainingBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class TrainingBenchmark
+{
+    // number of synthetic samples mini-batches are taken from
+    private static final int DATASET_SIZE = 1000;
+
+    // learning rate of benchmarked mini-batches, small so the weights stay in a typical range however long it runs
+    private static final double LEARN_RATE = 0.001;
+
+    // network being trained, shared by both benchmarks
+    @State(Scope.Thread)
+    public static class NetworkState
+    {
+        // mid layers of the topology benchmarked as <nodes>x<layers>, between 784 inputs and 10 outputs
+        @Param({"15x1", "100x1", "300x2"})
+        public String midLayers;
+
+        @Param({"DOUBLE", "SINGLE"})
+        public Precision precision;
+
+        NeuralNetwork network;
+        NetworkInput[] dataset;
+
+        @Setup
+        public void Setup()
+        {
+            String[] shape = midLayers.split("x");
+            network = new NeuralNetwork(784, Integer.parseInt(shape[1]), Integer.parseInt(shape[0]), 10, 1, precision);
+            dataset = NetworkBenchmark.CreateDataset(DATASET_SIZE, 784, 1);
+        }
+    }
+
+    // workspace holding the activations of the first input after one forward pass
+    @State(Scope.Thread)
+    public static class BackPropagateState
+    {
+        NetworkWorkspace workspace;
+
+        @Setup
+        public void Setup(NetworkState state)
+        {
+            workspace = state.network.CreateWorkspace();
+            if (state.precision == Precision.DOUBLE)
+            {
+                state.dataset[0].ReadInputValues(workspace.inputs);
+                state.network.ForwardPass(workspace.inputs, workspace);
+            }
+            else
+            {
+                state.dataset[0].ReadInputValues(workspace.floatInputs, 0);
+                state.network.ForwardPass(workspace.floatInputs, workspace);
+            }
+        }
+    }
+
+    // the first batchSize inputs of the dataset
+    @State(Scope.Thread)
+    public static class MiniBatchState
+    {
+        @Param({"10", "100", "1000"})
+        public int batchSize;
+
+        NetworkInput[] miniBatch;
+
+        @Setup
+        public void Setup(NetworkState state)
+        {
+            miniBatch = new NetworkInput[batchSize];
+            System.arraycopy(state.dataset, 0, miniBatch, 0, batchSize);
+        }
+    }
+
+    // one back propagation, which adds the case's gradients to the mini-batch sums of the workspace
+    @Benchmark
+    public void BackPropagate(NetworkState state, BackPropagateState backPropagateState, Blackhole blackhole)
+    {
+        NetworkWorkspace workspace = backPropagateState.workspace;
+        if (state.precision == Precision.DOUBLE)
+            state.network.BackPropagate(workspace.inputs, state.dataset[0].correctOutputVector, workspace);
+        else
+            state.network.BackPropagate(workspace.floatInputs, state.dataset[0].correctOutputVector, workspace);
+        blackhole.consume(workspace);
+    }
+
+    // one mini-batch training step, which changes the weights of the network
+    @Benchmark
+    public void RunMiniBatch(NetworkState state, MiniBatchState miniBatchState, Blackhole blackhole)
+    {
+        state.network.RunMiniBatch(miniBatchState.miniBatch, LEARN_RATE);
+        blackhole.consume(state.network);
+    }
+}
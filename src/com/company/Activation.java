@@ -0,0 +1,268 @@
+package com.company;
+
+// activation functions a layer can apply to its weighted sums:
+//     SIGMOID     the current SigmoidFunction applied to each weighted sum on its own
+//     SOFTMAX     exp of each weighted sum divided by the sum of the exps of the layer, so the activations of a case
+//                 are positive and add up to 1. Only used by output layers trained with cross-entropy cost
+//     TANH        hyperbolic tangent, between -1 and 1
+//     RELU        max(0, x)
+//     LEAKY_RELU  x for positive x, LEAKY_RELU_SLOPE * x otherwise, so negative inputs still get a gradient
+// Derivatives are calculated from the activations rather than the weighted sums, which works for every function
+// here as each is increasing. Network files store activations by ordinal, so new ones must be added at the end
+public enum Activation
+{
+    SIGMOID
+    {
+        @Override
+        public double Apply(double x)
+        {
+            return SigmoidFunction.Get().Apply(x);
+        }
+
+        @Override
+        public void Apply(double[] values, int numNodes, int numCases)
+        {
+            SigmoidFunction.Get().Apply(values, 0, numNodes * numCases);
+        }
+
+        @Override
+        public void Apply(float[] values, int numNodes, int numCases)
+        {
+            SigmoidFunction.Get().Apply(values, 0, numNodes * numCases);
+        }
+
+        @Override
+        public void MultiplyDerivatives(double[] activations, double[] gradients, int length)
+        {
+            for (int i = 0; i < length; i++)
+                gradients[i] *= activations[i] * (1 - activations[i]);
+        }
+
+        @Override
+        public void MultiplyDerivatives(float[] activations, float[] gradients, int length)
+        {
+            for (int i = 0; i < length; i++)
+                gradients[i] *= activations[i] * (1 - activations[i]);
+        }
+    },
+
+    SOFTMAX
+    {
+        @Override
+        public double Apply(double x)
+        {
+            throw new UnsupportedOperationException("softmax depends on every weighted sum of the layer");
+        }
+
+        @Override
+        public void Apply(double[] values, int numNodes, int numCases)
+        {
+            for (int c = 0; c < numCases; c++)
+            {
+                int offset = c * numNodes;
+
+                // subtract max weighted sum of the case before taking exps so they cannot overflow
+                double max = values[offset];
+                for (int i = 1; i < numNodes; i++)
+                    max = Math.max(max, values[offset + i]);
+
+                double sum = 0;
+                for (int i = offset; i < offset + numNodes; i++)
+                {
+                    values[i] = Math.exp(values[i] - max);
+                    sum += values[i];
+                }
+
+                double inverseSum = 1 / sum;
+                for (int i = offset; i < offset + numNodes; i++)
+                    values[i] *= inverseSum;
+            }
+        }
+
+        @Override
+        public void Apply(float[] values, int numNodes, int numCases)
+        {
+            for (int c = 0; c < numCases; c++)
+            {
+                int offset = c * numNodes;
+
+                float max = values[offset];
+                for (int i = 1; i < numNodes; i++)
+                    max = Math.max(max, values[offset + i]);
+
+                float sum = 0;
+                for (int i = offset; i < offset + numNodes; i++)
+                {
+                    values[i] = (float) Math.exp(values[i] - max);
+                    sum += values[i];
+                }
+
+                float inverseSum = 1 / sum;
+                for (int i = offset; i < offset + numNodes; i++)
+                    values[i] *= inverseSum;
+            }
+        }
+
+        // softmax layers are only trained as output layers with cross-entropy cost, whose gradient needs no derivative
+        @Override
+        public void MultiplyDerivatives(double[] activations, double[] gradients, int length)
+        {
+            throw new UnsupportedOperationException("softmax is only supported for output layers");
+        }
+
+        @Override
+        public void MultiplyDerivatives(float[] activations, float[] gradients, int length)
+        {
+            throw new UnsupportedOperationException("softmax is only supported for output layers");
+        }
+    },
+
+    TANH
+    {
+        @Override
+        public double Apply(double x)
+        {
+            return Math.tanh(x);
+        }
+
+        @Override
+        public void MultiplyDerivatives(double[] activations, double[] gradients, int length)
+        {
+            for (int i = 0; i < length; i++)
+                gradients[i] *= 1 - activations[i] * activations[i];
+        }
+
+        @Override
+        public void MultiplyDerivatives(float[] activations, float[] gradients, int length)
+        {
+            for (int i = 0; i < length; i++)
+                gradients[i] *= 1 - activations[i] * activations[i];
+        }
+    },
+
+    RELU
+    {
+        @Override
+        public double Apply(double x)
+        {
+            return Math.max(0, x);
+        }
+
+        @Override
+        public void Apply(double[] values, int numNodes, int numCases)
+        {
+            for (int i = 0; i < numNodes * numCases; i++)
+                values[i] = Math.max(0, values[i]);
+        }
+
+        @Override
+        public void Apply(float[] values, int numNodes, int numCases)
+        {
+            for (int i = 0; i < numNodes * numCases; i++)
+                values[i] = Math.max(0, values[i]);
+        }
+
+        @Override
+        public void MultiplyDerivatives(double[] activations, double[] gradients, int length)
+        {
+            for (int i = 0; i < length; i++)
+                if (activations[i] <= 0)
+                    gradients[i] = 0;
+        }
+
+        @Override
+        public void MultiplyDerivatives(float[] activations, float[] gradients, int length)
+        {
+            for (int i = 0; i < length; i++)
+                if (activations[i] <= 0)
+                    gradients[i] = 0;
+        }
+
+        @Override
+        public double GetInitialWeightDeviation(int numInputs)
+        {
+            return Math.sqrt(2.0 / numInputs);
+        }
+    },
+
+    LEAKY_RELU
+    {
+        @Override
+        public double Apply(double x)
+        {
+            return (x > 0) ? x : LEAKY_RELU_SLOPE * x;
+        }
+
+        @Override
+        public void Apply(double[] values, int numNodes, int numCases)
+        {
+            for (int i = 0; i < numNodes * numCases; i++)
+                values[i] = (values[i] > 0) ? values[i] : LEAKY_RELU_SLOPE * values[i];
+        }
+
+        @Override
+        public void Apply(float[] values, int numNodes, int numCases)
+        {
+            for (int i = 0; i < numNodes * numCases; i++)
+                values[i] = (values[i] > 0) ? values[i] : (float) LEAKY_RELU_SLOPE * values[i];
+        }
+
+        @Override
+        public void MultiplyDerivatives(double[] activations, double[] gradients, int length)
+        {
+            for (int i = 0; i < length; i++)
+                if (activations[i] <= 0)
+                    gradients[i] *= LEAKY_RELU_SLOPE;
+        }
+
+        @Override
+        public void MultiplyDerivatives(float[] activations, float[] gradients, int length)
+        {
+            for (int i = 0; i < length; i++)
+                if (activations[i] <= 0)
+                    gradients[i] *= (float) LEAKY_RELU_SLOPE;
+        }
+
+        @Override
+        public double GetInitialWeightDeviation(int numInputs)
+        {
+            return Math.sqrt(2.0 / (1 + LEAKY_RELU_SLOPE * LEAKY_RELU_SLOPE) / numInputs);
+        }
+    };
+
+    // slope of leaky ReLU for negative inputs
+    public static final double LEAKY_RELU_SLOPE = 0.01;
+
+    // applies the function to a single weighted sum, not supported by softmax
+    public abstract double Apply(double x);
+
+    // replaces the weighted sums of numCases cases, stored as flat row-major rows of numNodes values, with their activations
+    public void Apply(double[] values, int numNodes, int numCases)
+    {
+        for (int i = 0; i < numNodes * numCases; i++)
+            values[i] = Apply(values[i]);
+    }
+
+    // single precision version of Apply, rounds the double precision result
+    public void Apply(float[] values, int numNodes, int numCases)
+    {
+        for (int i = 0; i < numNodes * numCases; i++)
+            values[i] = (float) Apply(values[i]);
+    }
+
+    // multiplies the first length gradients by the derivative of the function at the matching activations,
+    // used to carry gradients back through a hidden layer. Not supported by softmax
+    public abstract void MultiplyDerivatives(double[] activations, double[] gradients, int length);
+
+    // single precision version of MultiplyDerivatives
+    public abstract void MultiplyDerivatives(float[] activations, float[] gradients, int length);
+
+    // returns the standard deviation of the normally distributed initial weights of a layer with this activation
+    // and the given number of inputs. This is Xavier initialization, a variance of 1 / numInputs, which keeps the
+    // variance of the weighted sums near that of the inputs. The ReLU family overrides it with He initialization,
+    // a variance of 2 / numInputs, to make up for the half of the inputs they zero out
+    public double GetInitialWeightDeviation(int numInputs)
+    {
+        return Math.sqrt(1.0 / numInputs);
+    }
+}
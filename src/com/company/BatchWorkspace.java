@@ -0,0 +1,42 @@
+package com.company;
+
+// holds the inputs and activations of every layer for a batch of cases, each stored
+// as one flat row-major matrix with one row per case
+public class BatchWorkspace
+{
+    // maximum number of cases in a batch
+    final int capacity;
+
+    // precision of the layers the workspace was created for, only the buffers of
+    // that precision are allocated and the others are null
+    final Precision precision;
+
+    // input vectors fed into the first layer
+    final double[] inputs;
+    final float[] floatInputs;
+
+    // per-layer activations, indexed the same as the network's layer array
+    final double[][] activations;
+    final float[][] floatActivations;
+
+    // constructor allocates buffers sized to hold capacity cases for each of the given layers
+    public BatchWorkspace(Layer[] layers, int capacity)
+    {
+        // initialize arrays
+        this.capacity = capacity;
+        precision = layers[0].GetPrecision();
+        boolean isDouble = precision == Precision.DOUBLE;
+        inputs = isDouble ? new double[capacity * layers[0].GetNumInputs()] : null;
+        floatInputs = isDouble ? null : new float[capacity * layers[0].GetNumInputs()];
+        activations = isDouble ? new double[layers.length][] : null;
+        floatActivations = isDouble ? null : new float[layers.length][];
+
+        for (int i = 0; i < layers.length; i++)
+        {
+            if (isDouble)
+                activations[i] = new double[capacity * layers[i].GetNumNodes()];
+            else
+                floatActivations[i] = new float[capacity * layers[i].GetNumNodes()];
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.company;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// writes checkpoint files on a background thread so training never waits on the disk. Each checkpoint
+// is written to a temporary file next to the checkpoint file, then moved over it, so the checkpoint file
+// always holds a whole checkpoint even if the program dies mid-write. Snapshots are filled into one of
+// three reused buffers: one being written, one waiting to be written, and one being filled. If a snapshot
+// is taken while another is still waiting, the waiting one is dropped for the newer one
+public class CheckpointWriter
+{
+    private final Path filePath, tempFilePath;
+
+    // buffers not in use, waiting to be written, and being written, guarded by this
+    private final ByteBuffer[] freeBuffers = new ByteBuffer[3];
+    private int numFreeBuffers;
+    private ByteBuffer pendingBuffer, writingBuffer;
+
+    // thread writing checkpoints
+    private final Thread thread;
+
+    // number of checkpoints written, and dropped for a newer one before being written
+    private long numWritten, numDropped;
+
+    // constructor takes the path of the checkpoint file and starts the writing thread
+    public CheckpointWriter(String filePath)
+    {
+        // initialize variables
+        this.filePath = Paths.get(filePath).toAbsolutePath();
+        tempFilePath = this.filePath.resolveSibling(this.filePath.getFileName() + ".tmp");
+
+        // create and start writing thread
+        thread = new Thread(this::WriteCheckpoints, "CheckpointWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // returns a cleared little-endian buffer of at least the given size for the next snapshot, never waits for the
+    // writing thread. The buffer must be passed to Submit once filled, and is only valid until then
+    synchronized ByteBuffer GetSnapshotBuffer(int size)
+    {
+        ByteBuffer buffer;
+        if (numFreeBuffers > 0)
+        {
+            buffer = freeBuffers[--numFreeBuffers];
+        }
+        else if (pendingBuffer != null)  // take back the snapshot waiting to be written, it is replaced by the new one
+        {
+            buffer = pendingBuffer;
+            pendingBuffer = null;
+            numDropped++;
+        }
+        else
+        {
+            buffer = null;
+        }
+
+        // allocate buffer if there was none or it is too small
+        if (buffer == null || buffer.capacity() < size)
+            buffer = ByteBuffer.allocate(size);
+
+        return buffer.clear().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // queues a filled snapshot buffer to be written, the checkpoint is everything before the buffer's position
+    synchronized void Submit(ByteBuffer buffer)
+    {
+        pendingBuffer = buffer.flip();
+        notifyAll();
+    }
+
+    // waits until every submitted checkpoint has been written, returns false if interrupted
+    public synchronized boolean Flush()
+    {
+        try
+        {
+            while (pendingBuffer != null || writingBuffer != null)
+                wait();
+
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // waits for submitted checkpoints to be written, then stops the writing thread
+    public void Close()
+    {
+        Flush();
+        thread.interrupt();
+    }
+
+    // getter for the number of checkpoints written
+    public synchronized long GetNumWritten()
+    {
+        return numWritten;
+    }
+
+    // getter for the number of checkpoints replaced by a newer one before they could be written
+    public synchronized long GetNumDropped()
+    {
+        return numDropped;
+    }
+
+    // getter for the path of the checkpoint file
+    public String GetFilePath()
+    {
+        return filePath.toString();
+    }
+
+    // takes each submitted buffer and writes it until the program exits
+    private void WriteCheckpoints()
+    {
+        while (true)
+        {
+            // wait for a snapshot
+            ByteBuffer buffer;
+            synchronized (this)
+            {
+                while (pendingBuffer == null)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+
+                buffer = writingBuffer = pendingBuffer;
+                pendingBuffer = null;
+            }
+
+            boolean isWritten = Write(buffer);
+
+            // return buffer for reuse and wake any thread waiting in Flush
+            synchronized (this)
+            {
+                writingBuffer = null;
+                freeBuffers[numFreeBuffers++] = buffer;
+                if (isWritten)
+                    numWritten++;
+                notifyAll();
+            }
+        }
+    }
+
+    // writes a checkpoint followed by the checksum of its contents to the temporary file, then moves it over the
+    // checkpoint file. Returns false and prints an error message if the write failed
+    private boolean Write(ByteBuffer buffer)
+    {
+        // checksum is computed here rather than when the snapshot is taken to keep it off the training thread
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(crc.getValue()).flip();
+
+        try
+        {
+            try (FileChannel channel = FileChannel.open(tempFilePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                while (checksum.hasRemaining())
+                    channel.write(checksum);
+
+                // make sure contents are on disk before the move makes them the checkpoint
+                channel.force(true);
+            }
+
+            try
+            {
+                Files.move(tempFilePath, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)  // file system cannot replace atomically, replace it as closely as it can
+            {
+                Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.out.println("An error occurred while writing the checkpoint file \"" + filePath + "\": " + e.getMessage());
+            return false;
+        }
+    }
+}
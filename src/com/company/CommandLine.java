@@ -0,0 +1,687 @@
+package com.company;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// headless commands run by Main when its first argument is a command name, for scripts and batch jobs:
+//     java com.company.Main <command> [--flag value...]
+// Each command writes one line of JSON to standard output describing what it did, including how long it took and
+// how many samples per second it processed, so runs can be chained in pipelines. Everything else the program prints,
+// such as training progress and error messages, goes to standard error. The JSON starts with "ok", which is false
+// if the command failed, in which case it holds an "error" message. The exit code is 0 on success, 1 if the command
+// failed, including on an unexpected exception, and 2 if the command line was invalid.
+// Datasets are MNIST IDX image files, csv files or dataset cache files, see Main.LoadDataFile
+public class CommandLine
+{
+    // commands and the flags each of them takes, see USAGE
+    private static final Map<String, String[]> COMMAND_FLAGS = new HashMap<>();
+
+    static
+    {
+        String[] networkFlags = {"layers", "activation", "loss", "precision", "seed"};
+        COMMAND_FLAGS.put("train", Concat(networkFlags, "train", "test", "out", "optimizer", "learn-rate", "batch-size", "epochs",
+                "threads", "validation", "patience", "checkpoint", "resume"));
+        COMMAND_FLAGS.put("evaluate", new String[] {"network", "data", "threads"});
+        COMMAND_FLAGS.put("predict", new String[] {"network", "data", "image", "probabilities"});
+        COMMAND_FLAGS.put("convert-dataset", new String[] {"in", "out"});
+        COMMAND_FLAGS.put("benchmark", Concat(networkFlags, "network", "data", "threads", "learn-rate", "batch-size", "seconds"));
+        COMMAND_FLAGS.put("worker", new String[] {"coordinator", "train", "threads"});
+    }
+
+    // flags that take no value
+    private static final List<String> SWITCHES = Arrays.asList("resume", "probabilities");
+
+    // flags whose values are checked while parsing: counts that must be at least 1, counts that may be 0, and
+    // numbers that must be greater than 0
+    private static final List<String> POSITIVE_COUNT_FLAGS = Arrays.asList("batch-size", "epochs", "threads");
+    private static final List<String> COUNT_FLAGS = Arrays.asList("validation", "patience");
+    private static final List<String> POSITIVE_NUMBER_FLAGS = Arrays.asList("learn-rate", "seconds");
+
+    // number of synthetic samples benchmarked when no dataset is given
+    private static final int BENCHMARK_DATASET_SIZE = 10000;
+
+    private static final String USAGE = String.join("\n",
+            "Usage: java com.company.Main <command> [--flag value...]",
+            "  train            --train <dataset> [--test <dataset>] [--out <network file>]",
+            "                   [--layers 15] [--activation sigmoid|tanh|relu|leaky-relu] [--loss quadratic|cross-entropy]",
+            "                   [--optimizer sgd|momentum|nesterov|adam] [--learn-rate 3.0] [--batch-size 10] [--epochs 30]",
+            "                   [--threads <cores>] [--precision double|single] [--seed <random>]",
+            "                   [--validation 0] [--patience 0] [--checkpoint <file>] [--resume]",
+            "  evaluate         --network <network file> --data <dataset> [--threads <cores>]",
+            "  predict          --network <network file> (--data <dataset> | --image <raw pixel file>) [--probabilities]",
+            "  convert-dataset  --in <dataset> --out <file ending in .csv or .cache>",
+            "  benchmark        [--network <network file> | network flags of train] [--data <dataset>] [--threads <cores>]",
+            "                   [--learn-rate 0.1] [--batch-size 10] [--seconds 2]",
+            "  worker           --coordinator <host:port> --train <dataset> [--threads 1]",
+            "                   trains a shard of the dataset for a ParameterAveragingCoordinator",
+            "--layers takes the widths of the mid layers separated by commas, the output layer has 10 nodes");
+
+    // returns true if the argument is the name of a command
+    static boolean IsCommand(String name)
+    {
+        return COMMAND_FLAGS.containsKey(name);
+    }
+
+    // runs the command named by the first argument with the flags that follow it, returning the exit code
+    public static int Run(String[] args)
+    {
+        PrintStream output = System.out;
+        String command = (args.length > 0) ? args[0] : "";
+        if (!IsCommand(command))
+        {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        // keep standard output for the result
+        System.setOut(System.err);
+        try
+        {
+            Map<String, String> flags = ParseFlags(args, COMMAND_FLAGS.get(command));
+            JsonWriter result = new JsonWriter();
+            boolean succeeded;
+            switch (command)
+            {
+                case "train":
+                    succeeded = Train(flags, result);
+                    break;
+                case "evaluate":
+                    succeeded = Evaluate(flags, result);
+                    break;
+                case "predict":
+                    succeeded = Predict(flags, result);
+                    break;
+                case "convert-dataset":
+                    succeeded = ConvertDataset(flags, result);
+                    break;
+                case "benchmark":
+                    succeeded = Benchmark(flags, result);
+                    break;
+                default:
+                    succeeded = Worker(flags, result);
+                    break;
+            }
+
+            output.println(new JsonWriter().Add("ok", succeeded).Add("command", command).Add(result));
+            return succeeded ? 0 : 1;
+        }
+        catch (IllegalArgumentException e)  // the command line was invalid
+        {
+            System.err.println(e.getMessage() + "\n" + USAGE);
+            return 2;
+        }
+        catch (FileNotFoundException | NoSuchFileException e)  // a file path given was invalid
+        {
+            return PrintError(output, command, "The specified file could not be found: " + e.getMessage());
+        }
+        catch (IOException e)  // a file could not be read or written
+        {
+            return PrintError(output, command, "An error occurred while reading or writing a file: " + e.getMessage());
+        }
+        catch (RuntimeException e)  // the command failed unexpectedly, the stack trace goes to standard error
+        {
+            e.printStackTrace();
+            return PrintError(output, command, e.toString());
+        }
+        finally
+        {
+            System.setOut(output);
+        }
+    }
+
+    // region Commands
+    // trains a new network, or resumes training from a checkpoint, and saves it
+    private static boolean Train(Map<String, String> flags, JsonWriter result) throws IOException
+    {
+        long start = System.nanoTime();
+        NetworkInput[] trainingData = LoadDataset(Require(flags, "train"), true);
+        NetworkInput[] testingData = flags.containsKey("test") ? LoadDataset(flags.get("test"), true) : null;
+        result.Add("loadSeconds", Seconds(start));
+
+        NeuralNetwork network = CreateNetwork(flags, trainingData[0].GetNumInputs());
+        Optimizer optimizer = Optimizer.Create(flags.getOrDefault("optimizer", "sgd"));
+        if (optimizer == null)
+            throw new IllegalArgumentException("Unknown optimizer \"" + flags.get("optimizer") + "\"");
+        network.SetOptimizer(optimizer);
+        network.SetNumThreads(GetInt(flags, "threads", Runtime.getRuntime().availableProcessors()));
+
+        // hold out end of training data as validation data
+        int validationSize = GetInt(flags, "validation", 0);
+        if (validationSize > 0 && validationSize < trainingData.length)
+        {
+            network.SetValidationData(Arrays.copyOfRange(trainingData, trainingData.length - validationSize, trainingData.length));
+            network.SetEarlyStopping(GetInt(flags, "patience", 0));
+            trainingData = Arrays.copyOf(trainingData, trainingData.length - validationSize);
+        }
+
+        if (flags.containsKey("checkpoint"))
+        {
+            network.SetCheckpointing(flags.get("checkpoint"), Main.CHECKPOINT_BATCH_INTERVAL, Main.CHECKPOINT_EPOCH_INTERVAL);
+            if (flags.containsKey("resume") && !network.LoadCheckpoint(flags.get("checkpoint")))
+                return Fail(result, "The checkpoint could not be loaded");
+        }
+        else if (flags.containsKey("resume"))
+            throw new IllegalArgumentException("--resume needs a --checkpoint file");
+
+        // collect metrics of every epoch
+        List<TrainingMetrics> epochs = new ArrayList<>();
+        network.AddTrainingListener(epochs::add);
+
+        start = System.nanoTime();
+        network.TrainNetwork(trainingData, GetDouble(flags, "learn-rate", 3.0), GetInt(flags, "batch-size", 10), GetInt(flags, "epochs", 30));
+        double seconds = Seconds(start);
+
+        long numSamples = 0;
+        for (TrainingMetrics metrics : epochs)
+            numSamples += metrics.GetNumSamples();
+        result.Add("epochs", epochs.size()).Add("samples", numSamples).Add("seconds", seconds).Add("samplesPerSecond", numSamples / seconds);
+        if (!epochs.isEmpty())
+        {
+            TrainingMetrics last = epochs.get(epochs.size() - 1);
+            result.Add("loss", last.GetLoss()).Add("validationAccuracy", 100 * last.GetValidationAccuracy());
+        }
+
+        if (testingData != null)
+            result.Add("testAccuracy", 100.0 * CountCorrect(network.TestNetwork(testingData)) / testingData.length);
+
+        if (flags.containsKey("out"))
+        {
+            if (!network.SaveNetwork(flags.get("out")))
+                return Fail(result, "The network could not be saved");
+            result.Add("network", flags.get("out"));
+        }
+
+        return true;
+    }
+
+    // tests a saved network on a dataset, splitting the dataset between threads
+    private static boolean Evaluate(Map<String, String> flags, JsonWriter result) throws IOException
+    {
+        long start = System.nanoTime();
+        NeuralNetwork network = NeuralNetwork.CreateFromFile(Require(flags, "network"));
+        if (network == null)
+            return Fail(result, "The network could not be loaded");
+        NetworkInput[] data = LoadDataset(Require(flags, "data"), false);
+        if (data[0].GetNumInputs() != network.GetNumInputs())
+            return Fail(result, "The dataset does not match the network's number of inputs");
+        result.Add("loadSeconds", Seconds(start));
+
+        NetworkModel model = network.CreateModel();
+        int numThreads = Math.max(1, Math.min(GetInt(flags, "threads", Runtime.getRuntime().availableProcessors()), data.length / NetworkModel.BATCH_SIZE));
+
+        // count correct answers in equal slices of the dataset
+        start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        int numCorrect = 0;
+        try
+        {
+            List<Future<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++)
+            {
+                int from = (int) ((long) data.length * i / numThreads), to = (int) ((long) data.length * (i + 1) / numThreads);
+                tasks.add(pool.submit(() -> model.CountCorrect(data, from, to, model.CreateWorkspace(NetworkModel.BATCH_SIZE))));
+            }
+            for (Future<Integer> task : tasks)
+                numCorrect += task.get();
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            return Fail(result, "An error occurred while testing the network: " + e);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        double seconds = Seconds(start);
+
+        result.Add("inputs", data.length).Add("correct", numCorrect).Add("accuracy", 100.0 * numCorrect / data.length)
+                .Add("threads", numThreads).Add("seconds", seconds).Add("samplesPerSecond", data.length / seconds);
+        return true;
+    }
+
+    // predicts the digit of each input of a dataset, or of one image given as raw 0-255 pixel bytes. Inputs are run
+    // straight from the dataset in batches of NetworkModel.BATCH_SIZE through one workspace
+    private static boolean Predict(Map<String, String> flags, JsonWriter result) throws IOException
+    {
+        long start = System.nanoTime();
+        NeuralNetwork network = NeuralNetwork.CreateFromFile(Require(flags, "network"));
+        if (network == null)
+            return Fail(result, "The network could not be loaded");
+
+        // read inputs, an image is viewed as a dataset of one input
+        NetworkInput[] data;
+        if (flags.containsKey("image"))
+        {
+            byte[] pixels = Files.readAllBytes(Paths.get(flags.get("image")));
+            data = new NetworkInput[] {new NetworkInput(0, ByteBuffer.wrap(pixels), 0, pixels.length)};
+        }
+        else
+            data = Main.LoadDataFile(Require(flags, "data"), false);
+
+        if (data.length == 0)
+            return Fail(result, "The dataset holds no inputs");
+        if (data[0].GetNumInputs() != network.GetNumInputs())
+            return Fail(result, "The inputs have " + data[0].GetNumInputs() + " pixels but the network takes " + network.GetNumInputs());
+        result.Add("loadSeconds", Seconds(start));
+
+        // run inputs through the network in batches
+        NetworkModel model = network.CreateModel();
+        int[] predictions = new int[data.length];
+        double[][] probabilities = flags.containsKey("probabilities") ? new double[data.length][model.GetNumOutputs()] : null;
+        start = System.nanoTime();
+        model.Predict(data, 0, data.length, predictions, probabilities, model.CreateWorkspace(Math.min(NetworkModel.BATCH_SIZE, data.length)));
+        double seconds = Seconds(start);
+
+        result.Add("inputs", data.length).Add("seconds", seconds).Add("samplesPerSecond", data.length / seconds).Add("predictions", predictions);
+        if (probabilities != null)
+            result.Add("probabilities", probabilities);
+        return true;
+    }
+
+    // converts a dataset to a csv file or a dataset cache file, chosen by the extension of the output file
+    private static boolean ConvertDataset(Map<String, String> flags, JsonWriter result) throws IOException
+    {
+        String outFilePath = Require(flags, "out");
+        if (!outFilePath.endsWith(".csv") && !outFilePath.endsWith(".cache"))
+            throw new IllegalArgumentException("--out must end in .csv or .cache");
+
+        long start = System.nanoTime();
+        NetworkInput[] data = LoadDataset(Require(flags, "in"), false);
+        if (outFilePath.endsWith(".csv"))
+            DatasetLoader.SaveCsv(data, outFilePath);
+        else
+            DatasetLoader.SaveCache(data, outFilePath);
+        double seconds = Seconds(start);
+
+        result.Add("inputs", data.length).Add("out", outFilePath).Add("seconds", seconds).Add("samplesPerSecond", data.length / seconds);
+        return true;
+    }
+
+    // measures single input latency, batched inference throughput and training throughput of a saved network or a
+    // new one, on a dataset or on synthetic data. Each measurement runs for the given number of seconds after
+    // running for half as long untimed so the JIT compiler has settled. See NetworkBenchmark for the full suite
+    private static boolean Benchmark(Map<String, String> flags, JsonWriter result) throws IOException
+    {
+        NeuralNetwork network;
+        if (flags.containsKey("network"))
+        {
+            network = NeuralNetwork.CreateFromFile(flags.get("network"));
+            if (network == null)
+                return Fail(result, "The network could not be loaded");
+        }
+        else
+            network = CreateNetwork(flags, 784);
+
+        NetworkInput[] data = flags.containsKey("data") ? LoadDataset(flags.get("data"), false) : NetworkBenchmark.CreateDataset(BENCHMARK_DATASET_SIZE, 784, 1);
+        if (data[0].GetNumInputs() != network.GetNumInputs())
+            return Fail(result, "The dataset does not match the network's number of inputs");
+
+        int numThreads = GetInt(flags, "threads", Runtime.getRuntime().availableProcessors()), batchSize = GetInt(flags, "batch-size", 10);
+        double learnRate = GetDouble(flags, "learn-rate", 0.1), seconds = GetDouble(flags, "seconds", 2);
+        network.SetNumThreads(numThreads);
+        result.Add("kernels", Kernels.Get().GetName()).Add("precision", network.GetPrecision().toString()).Add("threads", numThreads)
+                .Add("inputs", data.length);
+
+        // latency of one input at a time
+        NetworkModel model = network.CreateModel();
+        double[] input = new double[network.GetNumInputs()];
+        data[0].ReadInputValues(input);
+        LatencyHistogram latencies = new LatencyHistogram();
+        Measure(seconds / 2, () -> model.Predict(input));
+        Measure(seconds, () ->
+        {
+            long start = System.nanoTime();
+            model.Predict(input);
+            latencies.Record(System.nanoTime() - start);
+            return 1;
+        });
+        result.Add("latencyP50Micros", latencies.GetPercentile(50) / 1e3).Add("latencyP99Micros", latencies.GetPercentile(99) / 1e3);
+
+        // throughput of batched inference and of training, which changes the weights of the network
+        Measure(seconds / 2, () -> model.TestModel(data).length);
+        result.Add("inferenceSamplesPerSecond", Measure(seconds, () -> model.TestModel(data).length));
+        NetworkBenchmark.BenchmarkOperation epoch = () ->
+        {
+            network.TrainNetwork(data, learnRate, batchSize, 1);
+            return data.length / batchSize * batchSize;
+        };
+        Measure(seconds / 2, epoch);
+        result.Add("trainingSamplesPerSecond", Measure(seconds, epoch));
+        return true;
+    }
+
+    // trains a shard of a dataset as one worker of distributed training, see ParameterAveragingWorker
+    private static boolean Worker(Map<String, String> flags, JsonWriter result) throws IOException
+    {
+        String coordinator = Require(flags, "coordinator");
+        int separator = coordinator.lastIndexOf(':');
+        if (separator < 0)
+            throw new IllegalArgumentException("--coordinator must be given as host:port");
+        String host = coordinator.substring(0, separator);
+        int port = ParseInt(coordinator.substring(separator + 1), "coordinator");
+
+        long start = System.nanoTime();
+        NetworkInput[] trainingData = LoadDataset(Require(flags, "train"), true);
+        result.Add("loadSeconds", Seconds(start));
+
+        ParameterAveragingWorker worker = new ParameterAveragingWorker(trainingData, GetInt(flags, "threads", 1));
+        start = System.nanoTime();
+        boolean succeeded = worker.Train(host, port);
+        double seconds = Seconds(start);
+
+        result.Add("worker", worker.GetWorkerIndex()).Add("workers", worker.GetNumWorkers()).Add("syncs", worker.GetNumSyncs())
+                .Add("samples", worker.GetNumSamples()).Add("seconds", seconds).Add("samplesPerSecond", worker.GetNumSamples() / seconds)
+                .Add("trainSeconds", worker.GetTrainNanos() / 1e9).Add("syncSeconds", worker.GetSyncNanos() / 1e9);
+        return succeeded || Fail(result, "Training with the coordinator failed");
+    }
+    // endregion
+
+    // runs an operation repeatedly for at least the given number of seconds, and at least once, returning the
+    // samples per second processed, each run of the operation returning the number of samples it processed
+    private static double Measure(double seconds, NetworkBenchmark.BenchmarkOperation operation) throws IOException
+    {
+        long start = System.nanoTime(), end = start + (long) (seconds * 1e9), numSamples = 0;
+        do
+            numSamples += operation.Run();
+        while (System.nanoTime() < end);
+
+        return numSamples / Seconds(start);
+    }
+
+    // creates a network from the network flags, mid layers of the given activation followed by an output layer of 10
+    // nodes which is softmax when trained with cross-entropy cost and sigmoid otherwise. Sigmoid networks start from
+    // the same weights as networks made by the NeuralNetwork constructors, others from scaled weights
+    private static NeuralNetwork CreateNetwork(Map<String, String> flags, int numInputs)
+    {
+        Activation activation = ParseEnum(Activation.class, flags.getOrDefault("activation", "sigmoid"), "activation");
+        LossFunction lossFunction = ParseEnum(LossFunction.class, flags.getOrDefault("loss", "quadratic"), "loss");
+        if (activation == Activation.SOFTMAX)
+            throw new IllegalArgumentException("Mid layers cannot be softmax");
+
+        LayerSpec.Initialization initialization = (activation == Activation.SIGMOID) ? LayerSpec.Initialization.UNIFORM : LayerSpec.Initialization.SCALED;
+        NeuralNetwork.Builder builder = new NeuralNetwork.Builder(numInputs)
+                .SetPrecision(ParseEnum(Precision.class, flags.getOrDefault("precision", "double"), "precision"))
+                .SetSeed(flags.containsKey("seed") ? GetLong(flags, "seed") : new Random().nextLong());
+        for (String width : flags.getOrDefault("layers", "15").split(","))
+            builder.AddLayer(new LayerSpec(ParseInt(width.trim(), "layers"), activation, initialization));
+
+        return builder.AddLayer(new LayerSpec(10, lossFunction.GetOutputActivation(), initialization)).Build();
+    }
+
+    // loads a dataset, failing if it is empty. Only commands that train write a cache file next to a csv
+    // dataset, commands that just read their inputs leave the user's directories as they are
+    private static NetworkInput[] LoadDataset(String filePath, boolean writeCache) throws IOException
+    {
+        NetworkInput[] dataset = Main.LoadDataFile(filePath, writeCache);
+        if (dataset.length == 0)
+            throw new IOException("\"" + filePath + "\" holds no inputs");
+
+        return dataset;
+    }
+
+    // prints the result of a command that failed with an exception, returning the exit code 1
+    private static int PrintError(PrintStream output, String command, String message)
+    {
+        output.println(new JsonWriter().Add("ok", false).Add("command", command).Add("error", message));
+        return 1;
+    }
+
+    // adds an error message to the result, returning false
+    private static boolean Fail(JsonWriter result, String message)
+    {
+        result.Add("error", message);
+        return false;
+    }
+
+    // returns the number of true values
+    private static int CountCorrect(boolean[] results)
+    {
+        int numCorrect = 0;
+        for (boolean correct : results)
+            if (correct)
+                numCorrect++;
+
+        return numCorrect;
+    }
+
+    // returns the seconds elapsed since the given System.nanoTime
+    private static double Seconds(long startNanos)
+    {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    // region Flags
+    // parses the flags following the command into a map from flag name to value, switches map to "true". Flags are
+    // given as "--name value" or "--name=value", throws IllegalArgumentException for flags the command does not take
+    private static Map<String, String> ParseFlags(String[] args, String[] allowedFlags)
+    {
+        Map<String, String> flags = new HashMap<>();
+        for (int i = 1; i < args.length; i++)
+        {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Unexpected argument \"" + args[i] + "\"");
+
+            String name = args[i].substring(2), value;
+            int equals = name.indexOf('=');
+            if (equals >= 0)
+            {
+                value = name.substring(equals + 1);
+                name = name.substring(0, equals);
+            }
+            else if (SWITCHES.contains(name))
+                value = "true";
+            else if (i + 1 < args.length)
+                value = args[++i];
+            else
+                throw new IllegalArgumentException("--" + name + " needs a value");
+
+            if (!Arrays.asList(allowedFlags).contains(name))
+                throw new IllegalArgumentException("Unknown flag --" + name + " for " + args[0]);
+            CheckValue(name, value);
+            flags.put(name, value);
+        }
+
+        return flags;
+    }
+
+    // checks a count or number given as the value of a flag is in range, so a bad value is reported as an invalid
+    // command line rather than failing the command once it has started
+    private static void CheckValue(String name, String value)
+    {
+        if (POSITIVE_COUNT_FLAGS.contains(name) && ParseInt(value, name) < 1)
+            throw new IllegalArgumentException("--" + name + " must be at least 1");
+        if (COUNT_FLAGS.contains(name) && ParseInt(value, name) < 0)
+            throw new IllegalArgumentException("--" + name + " must not be negative");
+
+        if (POSITIVE_NUMBER_FLAGS.contains(name))
+        {
+            double number = ParseDouble(value, name);
+            if (!(number > 0) || Double.isInfinite(number))
+                throw new IllegalArgumentException("--" + name + " must be greater than 0");
+        }
+
+        // every mid layer needs at least one node
+        if (name.equals("layers"))
+            for (String width : value.split(","))
+                if (ParseInt(width.trim(), name) < 1)
+                    throw new IllegalArgumentException("--layers widths must be at least 1");
+    }
+
+    // returns the value of a flag that must be given
+    private static String Require(Map<String, String> flags, String name)
+    {
+        if (!flags.containsKey(name))
+            throw new IllegalArgumentException("--" + name + " is required");
+
+        return flags.get(name);
+    }
+
+    private static int GetInt(Map<String, String> flags, String name, int defaultValue)
+    {
+        return flags.containsKey(name) ? ParseInt(flags.get(name), name) : defaultValue;
+    }
+
+    private static long GetLong(Map<String, String> flags, String name)
+    {
+        try
+        {
+            return Long.parseLong(flags.get(name));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("--" + name + " must be a whole number");
+        }
+    }
+
+    private static double GetDouble(Map<String, String> flags, String name, double defaultValue)
+    {
+        return flags.containsKey(name) ? ParseDouble(flags.get(name), name) : defaultValue;
+    }
+
+    private static int ParseInt(String value, String name)
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("--" + name + " must be a whole number");
+        }
+    }
+
+    private static double ParseDouble(String value, String name)
+    {
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("--" + name + " must be a number");
+        }
+    }
+
+    // returns the constant of an enum named by a flag value, written in lowercase with dashes for underscores
+    private static <T extends Enum<T>> T ParseEnum(Class<T> type, String value, String name)
+    {
+        try
+        {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Unknown value \"" + value + "\" for --" + name);
+        }
+    }
+    // endregion
+
+    // builds a JSON object one field at a time, numbers are written the same way whatever the default locale and
+    // values that are not finite are written as null
+    private static final class JsonWriter
+    {
+        private final StringBuilder json = new StringBuilder("{");
+
+        JsonWriter Add(String name, String value)
+        {
+            Name(name).append('"');
+            for (char c : value.toCharArray())
+            {
+                if (c == '"' || c == '\\')
+                    json.append('\\').append(c);
+                else if (c < 0x20)
+                    json.append(String.format("\\u%04x", (int) c));
+                else
+                    json.append(c);
+            }
+            json.append('"');
+            return this;
+        }
+
+        JsonWriter Add(String name, boolean value)
+        {
+            Name(name).append(value);
+            return this;
+        }
+
+        JsonWriter Add(String name, long value)
+        {
+            Name(name).append(value);
+            return this;
+        }
+
+        JsonWriter Add(String name, double value)
+        {
+            Value(Name(name), value);
+            return this;
+        }
+
+        JsonWriter Add(String name, int[] values)
+        {
+            Name(name).append('[');
+            for (int i = 0; i < values.length; i++)
+                json.append((i > 0) ? "," : "").append(values[i]);
+            json.append(']');
+            return this;
+        }
+
+        JsonWriter Add(String name, double[][] values)
+        {
+            Name(name).append('[');
+            for (int i = 0; i < values.length; i++)
+            {
+                json.append((i > 0) ? ",[" : "[");
+                for (int j = 0; j < values[i].length; j++)
+                    Value(json.append((j > 0) ? "," : ""), values[i][j]);
+                json.append(']');
+            }
+            json.append(']');
+            return this;
+        }
+
+        // adds every field of another writer
+        JsonWriter Add(JsonWriter fields)
+        {
+            if (fields.json.length() > 1)
+                json.append((json.length() > 1) ? "," : "").append(fields.json, 1, fields.json.length());
+            return this;
+        }
+
+        // starts a field, returning the builder to write its value into
+        private StringBuilder Name(String name)
+        {
+            return json.append((json.length() > 1) ? ",\"" : "\"").append(name).append("\":");
+        }
+
+        private static void Value(StringBuilder json, double value)
+        {
+            json.append(Double.isFinite(value) ? String.format(Locale.ROOT, "%.6g", value) : "null");
+        }
+
+        @Override
+        public String toString()
+        {
+            return json + "}";
+        }
+    }
+
+    // returns the values followed by more values
+    private static String[] Concat(String[] values, String... more)
+    {
+        String[] all = Arrays.copyOf(values, values.length + more.length);
+        System.arraycopy(more, 0, all, values.length, more.length);
+        return all;
+    }
+}
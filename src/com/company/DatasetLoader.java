@@ -0,0 +1,471 @@
+package com.company;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// loads datasets as NetworkInput arrays that view byte pixels in one shared buffer, either
+// memory-mapped from the original MNIST IDX files or from a compact binary cache of a csv file
+public class DatasetLoader
+{
+    // magic numbers at the start of IDX image and label files
+    private static final int IDX_IMAGES_MAGIC = 0x00000803, IDX_LABELS_MAGIC = 0x00000801;
+
+    // magic number and version at the start of dataset cache files
+    private static final int CACHE_MAGIC = 0x4D4E4443, CACHE_VERSION = 1;
+
+    // size of dataset cache header: magic, version, number of inputs, number of pixels per input
+    private static final int CACHE_HEADER_SIZE = 16;
+
+    // smallest and largest chunk of a csv file parsed as one task, the largest leaves room below the 2 GB a
+    // single mapping can hold for the chunk to be extended to the end of its last line
+    private static final long MIN_CSV_CHUNK_SIZE = 1 << 20, MAX_CSV_CHUNK_SIZE = 1 << 30;
+
+    /* IDX Format (big-endian)
+        images file: magic 0x00000803, numImages, numRows, numColumns, then numRows * numColumns
+                     unsigned pixel bytes per image
+        labels file: magic 0x00000801, numLabels, then one unsigned label byte per image
+    */
+    // loads dataset from the original MNIST IDX image and label files, the image file is
+    // memory-mapped so pixel values are only read from disk when they are used
+    public static NetworkInput[] LoadIdx(String imagesFilePath, String labelsFilePath) throws IOException
+    {
+        MappedByteBuffer images = MapFile(Paths.get(imagesFilePath));
+        MappedByteBuffer labels = MapFile(Paths.get(labelsFilePath));
+
+        // check headers of both files
+        if (images.capacity() < 16 || images.getInt(0) != IDX_IMAGES_MAGIC)
+            throw new IOException("Not an IDX image file: \"" + imagesFilePath + "\"");
+        if (labels.capacity() < 8 || labels.getInt(0) != IDX_LABELS_MAGIC)
+            throw new IOException("Not an IDX label file: \"" + labelsFilePath + "\"");
+
+        int numImages = images.getInt(4);
+        int numRows = images.getInt(8), numColumns = images.getInt(12);
+        if (numImages < 0 || numRows < 0 || numColumns < 0)
+            throw new IOException("IDX image file \"" + imagesFilePath + "\" has a negative count in its header");
+        if (labels.getInt(4) != numImages)
+            throw new IOException("IDX image and label files contain a different number of entries");
+
+        // check both files are long enough for the entries their headers count
+        long numPixels = (long) numRows * numColumns;
+        if (images.capacity() < 16 + numImages * numPixels)
+            throw new IOException("IDX image file \"" + imagesFilePath + "\" is shorter than its header says");
+        if (labels.capacity() < 8 + (long) numImages)
+            throw new IOException("IDX label file \"" + labelsFilePath + "\" is shorter than its header says");
+
+        // create an input viewing each image
+        NetworkInput[] dataset = new NetworkInput[numImages];
+        for (int i = 0; i < numImages; i++)
+            dataset[i] = new NetworkInput(ReadLabel(labels, 8 + i, labelsFilePath), images, (int) (16 + i * numPixels), (int) numPixels);
+
+        return dataset;
+    }
+
+    /* Cache Format (big-endian)
+        magic 0x4D4E4443 ("MNDC")
+        version
+        numInputs
+        numPixels
+        for each input: label byte followed by numPixels unsigned pixel bytes
+    */
+    // writes dataset to a compact binary cache file that can be loaded with LoadCache
+    public static void SaveCache(NetworkInput[] dataset, String cacheFilePath) throws IOException
+    {
+        int numPixels = (dataset.length > 0) ? dataset[0].GetNumInputs() : 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(cacheFilePath), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            // write header
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(CACHE_HEADER_SIZE, 64 * (numPixels + 1)));
+            buffer.putInt(CACHE_MAGIC).putInt(CACHE_VERSION).putInt(dataset.length).putInt(numPixels);
+
+            // write inputs, flushing the buffer whenever the next input would not fit
+            for (NetworkInput input : dataset)
+            {
+                if (buffer.remaining() < numPixels + 1)
+                    WriteBuffer(channel, buffer);
+
+                buffer.put((byte) input.correctOutput);
+                for (int i = 0; i < numPixels; i++)
+                    buffer.put((byte) input.GetPixel(i));
+            }
+            WriteBuffer(channel, buffer);
+        }
+    }
+
+    // loads dataset from a cache file written by SaveCache, the file is memory-mapped
+    public static NetworkInput[] LoadCache(String cacheFilePath) throws IOException
+    {
+        MappedByteBuffer cache = MapFile(Paths.get(cacheFilePath));
+
+        // check header
+        if (cache.capacity() < CACHE_HEADER_SIZE || cache.getInt(0) != CACHE_MAGIC || cache.getInt(4) != CACHE_VERSION)
+            throw new IOException("Not a dataset cache file: \"" + cacheFilePath + "\"");
+
+        int numInputs = cache.getInt(8);
+        int numPixels = cache.getInt(12);
+        if (numInputs < 0 || numPixels < 0)
+            throw new IOException("Dataset cache file \"" + cacheFilePath + "\" has a negative count in its header");
+        if (cache.capacity() < CACHE_HEADER_SIZE + numInputs * (numPixels + 1L))
+            throw new IOException("Dataset cache file \"" + cacheFilePath + "\" is shorter than its header says");
+
+        // create an input viewing each record, each record is a label byte followed by the pixels
+        NetworkInput[] dataset = new NetworkInput[numInputs];
+        for (int i = 0; i < numInputs; i++)
+        {
+            int recordOffset = CACHE_HEADER_SIZE + i * (numPixels + 1);
+            dataset[i] = new NetworkInput(ReadLabel(cache, recordOffset, cacheFilePath), cache, recordOffset + 1, numPixels);
+        }
+
+        return dataset;
+    }
+
+    // writes dataset to a csv file that can be loaded with LoadCsv, one line per input holding the correct output
+    // followed by the pixel values
+    public static void SaveCsv(NetworkInput[] dataset, String csvFilePath) throws IOException
+    {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFilePath)))
+        {
+            StringBuilder line = new StringBuilder();
+            for (NetworkInput input : dataset)
+            {
+                line.setLength(0);
+                line.append(input.correctOutput);
+                for (int i = 0; i < input.GetNumInputs(); i++)
+                    line.append(',').append(input.GetPixel(i));
+                writer.write(line.append('\n').toString());
+            }
+        }
+    }
+
+    // loads dataset from the csv file at the given path, each line holds the correct output followed by the
+    // pixel values of one input, and a first line that does not start with a digit is skipped as a header.
+    // The file is split into chunks at line boundaries which are memory-mapped and parsed in parallel
+    // straight from bytes, and the dataset is sized from the lines actually found
+    public static NetworkInput[] LoadCsv(String csvFilePath) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(csvFilePath), StandardOpenOption.READ))
+        {
+            // a few chunks per core, but always enough that no chunk is too large to map
+            long fileSize = channel.size();
+            long numChunksForCores = Math.max(1, Math.min(4L * Runtime.getRuntime().availableProcessors(), fileSize / MIN_CSV_CHUNK_SIZE));
+            int numChunks = (int) Math.max(numChunksForCores, (fileSize + MAX_CSV_CHUNK_SIZE - 1) / MAX_CSV_CHUNK_SIZE);
+
+            // find chunk boundaries, moving each one forward to the start of a line
+            long[] boundaries = new long[numChunks + 1];
+            boundaries[numChunks] = fileSize;
+            for (int i = 1; i < numChunks; i++)
+                boundaries[i] = FindLineStart(channel, Math.max(boundaries[i - 1], i * fileSize / numChunks));
+
+            // map and parse each chunk as a separate task
+            List<Callable<NetworkInput[]>> tasks = new ArrayList<>();
+            for (int i = 0; i < numChunks; i++)
+            {
+                long start = boundaries[i], end = boundaries[i + 1];
+                if (end - start > Integer.MAX_VALUE)
+                    throw new IOException("Line of csv file \"" + csvFilePath + "\" is too long at byte " + start);
+                tasks.add(() -> ParseCsvChunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start));
+            }
+
+            // gather chunks in file order
+            List<NetworkInput[]> chunks = new ArrayList<>();
+            int numInputs = 0;
+            for (Future<NetworkInput[]> result : ForkJoinPool.commonPool().invokeAll(tasks))
+            {
+                chunks.add(result.get());
+                numInputs += chunks.get(chunks.size() - 1).length;
+            }
+
+            NetworkInput[] dataset = new NetworkInput[numInputs];
+            int offset = 0;
+            for (NetworkInput[] chunk : chunks)
+            {
+                // every line of the file must have the same number of pixels as the first
+                if (chunk.length > 0 && offset > 0 && chunk[0].GetNumInputs() != dataset[0].GetNumInputs())
+                    throw new IOException("Lines of csv file \"" + csvFilePath + "\" have different numbers of values");
+
+                System.arraycopy(chunk, 0, dataset, offset, chunk.length);
+                offset += chunk.length;
+            }
+
+            return dataset;
+        }
+        catch (ExecutionException e)  // a chunk could not be parsed
+        {
+            // rethrow the parse error, the pool may have wrapped it more than once
+            Throwable cause = e.getCause();
+            while (cause != null && !(cause instanceof IOException))
+                cause = cause.getCause();
+
+            if (cause != null)
+                throw (IOException) cause;
+            throw new IOException("Failed to parse csv file \"" + csvFilePath + "\"", e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading csv file \"" + csvFilePath + "\"", e);
+        }
+    }
+
+    // parses one chunk of a csv file made up of whole lines, chunkStart is the position of the chunk in the file
+    private static NetworkInput[] ParseCsvChunk(ByteBuffer mappedChunk, long chunkStart) throws IOException
+    {
+        // copy chunk out of the mapping in one bulk read so parsing works on a plain array
+        int length = mappedChunk.limit();
+        byte[] chunk = new byte[length];
+        mappedChunk.get(chunk);
+        int position = 0;
+
+        // skip header line at start of file
+        if (chunkStart == 0 && length > 0 && (chunk[0] < '0' || chunk[0] > '9'))
+            while (position < length && chunk[position++] != '\n');
+
+        // count lines to size arrays, counting a final line without a line break
+        int maxLines = 0;
+        for (int i = position; i < length; i++)
+            if (chunk[i] == '\n')
+                maxLines++;
+        if (length > position && chunk[length - 1] != '\n')
+            maxLines++;
+
+        // count values in first line to find number of pixels per line
+        int numPixels = 0;
+        for (int i = position; i < length && chunk[i] != '\n'; i++)
+            if (chunk[i] == ',')
+                numPixels++;
+
+        byte[] labels = new byte[maxLines];
+        byte[] pixels = new byte[maxLines * numPixels];
+        int numLines = 0;
+
+        while (position < length)
+        {
+            // skip blank lines
+            byte character = chunk[position];
+            if (character == '\n' || character == '\r')
+            {
+                position++;
+                continue;
+            }
+
+            // parse label and pixel values of line, each value is accumulated from its digits
+            // and stored when the comma or line break after it is reached
+            int field = 0, value = 0;
+            int pixelOffset = numLines * numPixels;
+            while (true)
+            {
+                character = (position < length) ? chunk[position] : (byte) '\n';
+                position++;
+
+                if (character >= '0' && character <= '9')
+                {
+                    value = value * 10 + (character - '0');
+                    if (value > 255)
+                        throw new IOException("Value out of range in csv file at byte " + (chunkStart + position));
+                }
+                else if (character == ',' || character == '\n')
+                {
+                    if (field == 0)
+                    {
+                        // check correct output before it is narrowed to a byte
+                        if (value > 9)
+                            throw new IOException("Correct output out of range in csv file at byte " + (chunkStart + position));
+                        labels[numLines] = (byte) value;
+                    }
+                    else if (field <= numPixels)
+                        pixels[pixelOffset + field - 1] = (byte) value;
+                    field++;
+                    value = 0;
+
+                    if (character == '\n')
+                        break;
+                }
+                else if (character != '\r' && character != ' ')
+                    throw new IOException("Unexpected character in csv file at byte " + (chunkStart + position));
+            }
+
+            // check line had the same number of pixels as the first line
+            if (field - 1 != numPixels)
+                throw new IOException("Malformed line in csv file ending at byte " + (chunkStart + position));
+            numLines++;
+        }
+
+        // create an input viewing each line's pixels
+        ByteBuffer pixelBuffer = ByteBuffer.wrap(pixels);
+        NetworkInput[] inputs = new NetworkInput[numLines];
+        for (int i = 0; i < numLines; i++)
+            inputs[i] = new NetworkInput(labels[i], pixelBuffer, i * numPixels, numPixels);
+
+        return inputs;
+    }
+
+    // returns the position in the file after the first line break at or after position, or the end of the file
+    private static long FindLineStart(FileChannel channel, long position) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (true)
+        {
+            buffer.clear();
+            int numRead = channel.read(buffer, position);
+            if (numRead <= 0)
+                return channel.size();
+
+            for (int i = 0; i < numRead; i++)
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+
+            position += numRead;
+        }
+    }
+
+    // returns a source streaming inputs from the csv file at the given path one line at a time, each
+    // line holds the correct output followed by the pixel values of one input, and a first line that
+    // does not start with a digit is skipped as a header, as LoadCsv does
+    public static NetworkInputSource StreamCsv(String csvFilePath)
+    {
+        return () ->
+        {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(csvFilePath));
+            return new NetworkInputReader()
+            {
+                private int lineNumber = 0;
+
+                @Override
+                public NetworkInput Next() throws IOException
+                {
+                    // skip blank lines and a header line, return null at end of file
+                    String line;
+                    do
+                    {
+                        line = bufferedReader.readLine();
+                        lineNumber++;
+                    } while (line != null && (line.isEmpty() || (lineNumber == 1 && (line.charAt(0) < '0' || line.charAt(0) > '9'))));
+
+                    if (line == null)
+                        return null;
+
+                    // separate line into input data and correct output
+                    String[] splitLine = line.split(",");
+                    int correctOutput;
+                    try
+                    {
+                        correctOutput = Integer.parseInt(splitLine[0].trim());
+                        for (int i = 1; i < splitLine.length; i++)
+                        {
+                            splitLine[i] = splitLine[i].trim();
+                            int value = Integer.parseInt(splitLine[i]);
+                            if (value < 0 || value > 255)
+                                throw new IOException("Value out of range in csv file \"" + csvFilePath + "\" at line " + lineNumber);
+                        }
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw new IOException("Malformed line in csv file \"" + csvFilePath + "\" at line " + lineNumber, e);
+                    }
+
+                    if (correctOutput < 0 || correctOutput > 9)
+                        throw new IOException("Correct output out of range in csv file \"" + csvFilePath + "\" at line " + lineNumber);
+
+                    return new NetworkInput(correctOutput, Arrays.copyOfRange(splitLine, 1, splitLine.length));
+                }
+
+                @Override
+                public void close() throws IOException
+                {
+                    bufferedReader.close();
+                }
+            };
+        };
+    }
+
+    // returns a source streaming inputs from the cache file at the given path one record at a time,
+    // unlike LoadCache only the record being read is held in memory
+    public static NetworkInputSource StreamCache(String cacheFilePath)
+    {
+        return () ->
+        {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFilePath)));
+
+            // check header
+            if (inputStream.readInt() != CACHE_MAGIC || inputStream.readInt() != CACHE_VERSION)
+            {
+                inputStream.close();
+                throw new IOException("Not a dataset cache file: \"" + cacheFilePath + "\"");
+            }
+
+            int numInputs = inputStream.readInt();
+            int numPixels = inputStream.readInt();
+            if (numInputs < 0 || numPixels < 0)
+            {
+                inputStream.close();
+                throw new IOException("Dataset cache file \"" + cacheFilePath + "\" has a negative count in its header");
+            }
+
+            return new NetworkInputReader()
+            {
+                private int numRead = 0;
+
+                @Override
+                public NetworkInput Next() throws IOException
+                {
+                    if (numRead == numInputs)
+                        return null;
+
+                    // read label byte followed by the pixels
+                    int correctOutput = inputStream.readUnsignedByte();
+                    if (correctOutput > 9)
+                        throw new IOException("Correct output out of range in dataset cache file \"" + cacheFilePath + "\"");
+                    byte[] pixels = new byte[numPixels];
+                    inputStream.readFully(pixels);
+                    numRead++;
+
+                    return new NetworkInput(correctOutput, ByteBuffer.wrap(pixels), 0, numPixels);
+                }
+
+                @Override
+                public void close() throws IOException
+                {
+                    inputStream.close();
+                }
+            };
+        };
+    }
+
+    // returns the unsigned label byte at the given position of a mapped file, throws if it is not a digit 0-9
+    private static int ReadLabel(ByteBuffer buffer, int position, String filePath) throws IOException
+    {
+        int label = buffer.get(position) & 0xFF;
+        if (label > 9)
+            throw new IOException("Correct output " + label + " out of range in \"" + filePath + "\" at byte " + position);
+        return label;
+    }
+
+    // memory-maps the whole of the given file as read only
+    private static MappedByteBuffer MapFile(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // writes the contents of the buffer to the channel and clears it for reuse
+    private static void WriteBuffer(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
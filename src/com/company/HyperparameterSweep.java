@@ -0,0 +1,304 @@
+package com.company;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// trains a network for each of a list of hyperparameter configurations and compares their accuracy, either every
+// combination of the given values (grid search) or configurations sampled from them (random search). Networks are
+// trained on a fixed pool of worker threads, each network on a single thread, so only one network per worker is in
+// memory at a time. Every worker reads the same training and testing arrays, which training and testing never
+// change, so the dataset is held once however many workers there are. Run as a program with
+//     java com.company.HyperparameterSweep [number of random configurations]
+// it sweeps the grid below on synthetic data unless MNIST files are given with
+//     -Dmnist.train=<training file> -Dmnist.test=<testing file>
+// and writes the results to the file named by "sweep.results". The number of workers is set by "sweep.workers"
+public class HyperparameterSweep
+{
+    // values swept when run as a program, chosen for sigmoid networks trained with gradient descent
+    private static final double[] LEARN_RATES = {0.5, 1.0, 3.0};
+    private static final int[] BATCH_SIZES = {10, 50};
+    private static final int[] NUM_MID_LAYERS = {1, 2};
+    private static final int[] NUM_MID_LAYER_NODES = {15, 30};
+    private static final int[] NUM_EPOCHS = {3};
+
+    // number of synthetic samples in the training and testing datasets when no MNIST files are given
+    private static final int DATASET_SIZE = 10000;
+
+    // one combination of hyperparameters
+    public static final class Configuration
+    {
+        public final double learnRate;
+        public final int batchSize, numMidLayers, numMidLayerNodes, numEpochs;
+
+        public Configuration(double learnRate, int batchSize, int numMidLayers, int numMidLayerNodes, int numEpochs)
+        {
+            this.learnRate = learnRate;
+            this.batchSize = batchSize;
+            this.numMidLayers = numMidLayers;
+            this.numMidLayerNodes = numMidLayerNodes;
+            this.numEpochs = numEpochs;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("lr=%.4g batch=%d layers=%dx%d epochs=%d", learnRate, batchSize, numMidLayers, numMidLayerNodes, numEpochs);
+        }
+    }
+
+    // accuracy of the network trained with a configuration, in percent of the testing data answered correctly, and
+    // the wall-clock seconds its training and testing took. Workers share the cores, so the seconds of different
+    // configurations only compare fairly with each other when run by the same number of workers
+    public static final class Result
+    {
+        public final Configuration configuration;
+        public final double accuracy, seconds;
+
+        Result(Configuration configuration, double accuracy, double seconds)
+        {
+            this.configuration = configuration;
+            this.accuracy = accuracy;
+            this.seconds = seconds;
+        }
+    }
+
+    // datasets shared by every worker, which must not be changed while a sweep runs
+    private final NetworkInput[] trainingData, testingData;
+
+    // number of networks trained at once
+    private final int numWorkers;
+
+    // settings shared by every network trained, networks of configuration i are seeded with seed + i
+    private int numInputs = 784, numOutputs = 10;
+    private String optimizerName = "sgd";
+    private LossFunction lossFunction = LossFunction.QUADRATIC;
+    private Precision precision = Precision.DOUBLE;
+    private long seed = 1;
+
+    // constructor takes the datasets to train and test on and the number of networks to train at once,
+    // values of 1 or less train one network at a time
+    public HyperparameterSweep(NetworkInput[] trainingData, NetworkInput[] testingData, int numWorkers)
+    {
+        this.trainingData = trainingData;
+        this.testingData = testingData;
+        this.numWorkers = Math.max(1, numWorkers);
+    }
+
+    // region Setters
+    // sets the number of inputs and outputs of the networks trained, 784 and 10 by default
+    public HyperparameterSweep SetShape(int numInputs, int numOutputs)
+    {
+        this.numInputs = numInputs;
+        this.numOutputs = numOutputs;
+        return this;
+    }
+
+    // sets the optimizer the networks are trained with by name, see Optimizer.Create, "sgd" by default
+    public HyperparameterSweep SetOptimizer(String optimizerName)
+    {
+        this.optimizerName = optimizerName;
+        return this;
+    }
+
+    // sets the cost function the networks are trained with, quadratic by default
+    public HyperparameterSweep SetLossFunction(LossFunction lossFunction)
+    {
+        this.lossFunction = lossFunction;
+        return this;
+    }
+
+    // sets the precision of the networks trained, double by default
+    public HyperparameterSweep SetPrecision(Precision precision)
+    {
+        this.precision = precision;
+        return this;
+    }
+
+    // sets the seed of the networks trained, 1 by default
+    public HyperparameterSweep SetSeed(long seed)
+    {
+        this.seed = seed;
+        return this;
+    }
+    // endregion
+
+    // returns every combination of the given values, learning rates varying fastest
+    public static List<Configuration> CreateGrid(double[] learnRates, int[] batchSizes, int[] numMidLayers, int[] numMidLayerNodes, int[] numEpochs)
+    {
+        List<Configuration> configurations = new ArrayList<>();
+        for (int epochs : numEpochs)
+            for (int nodes : numMidLayerNodes)
+                for (int layers : numMidLayers)
+                    for (int batchSize : batchSizes)
+                        for (double learnRate : learnRates)
+                            configurations.add(new Configuration(learnRate, batchSize, layers, nodes, epochs));
+
+        return configurations;
+    }
+
+    // returns numConfigurations configurations sampled from the given values, with learning rates drawn
+    // log-uniformly between minLearnRate and maxLearnRate, as random search covers each hyperparameter
+    // with more distinct values than a grid of the same size
+    public static List<Configuration> CreateRandom(int numConfigurations, long seed, double minLearnRate, double maxLearnRate,
+                                                   int[] batchSizes, int[] numMidLayers, int[] numMidLayerNodes, int[] numEpochs)
+    {
+        Random random = new Random(seed);
+        List<Configuration> configurations = new ArrayList<>();
+        for (int i = 0; i < numConfigurations; i++)
+        {
+            double learnRate = minLearnRate * Math.pow(maxLearnRate / minLearnRate, random.nextDouble());
+            configurations.add(new Configuration(learnRate, batchSizes[random.nextInt(batchSizes.length)], numMidLayers[random.nextInt(numMidLayers.length)],
+                    numMidLayerNodes[random.nextInt(numMidLayerNodes.length)], numEpochs[random.nextInt(numEpochs.length)]));
+        }
+
+        return configurations;
+    }
+
+    // trains and tests a network for each configuration on the worker pool, printing each result as it finishes,
+    // and returns the results in the order of the configurations. Returns null if the optimizer name is unknown
+    // or a network failed to train
+    public Result[] Run(List<Configuration> configurations)
+    {
+        if (Optimizer.Create(optimizerName) == null)
+        {
+            System.out.println("There is no optimizer named \"" + optimizerName + "\"");
+            return null;
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers, runnable ->
+        {
+            Thread thread = new Thread(runnable, "SweepWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try
+        {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < configurations.size(); i++)
+            {
+                Configuration configuration = configurations.get(i);
+                long networkSeed = seed + i;
+                futures.add(workers.submit(() ->
+                {
+                    Result result = Train(configuration, networkSeed);
+                    System.out.printf("Finished configuration %s: %.2f%% in %.1fs%n", configuration, result.accuracy, result.seconds);
+                    return result;
+                }));
+            }
+
+            Result[] results = new Result[futures.size()];
+            for (int i = 0; i < results.length; i++)
+                results[i] = futures.get(i).get();
+
+            return results;
+        }
+        catch (ExecutionException e)
+        {
+            System.out.println("An error occurred while training a configuration: " + e.getCause());
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    // trains and tests a network with one configuration on the calling thread
+    private Result Train(Configuration configuration, long networkSeed)
+    {
+        long start = System.nanoTime();
+
+        NeuralNetwork network = new NeuralNetwork(numInputs, configuration.numMidLayers, configuration.numMidLayerNodes, numOutputs, networkSeed, precision);
+        network.SetOptimizer(Optimizer.Create(optimizerName));
+        network.SetLossFunction(lossFunction);
+        network.TrainNetwork(trainingData, configuration.learnRate, configuration.batchSize, configuration.numEpochs);
+
+        int numCorrect = 0;
+        for (boolean result : network.TestNetwork(testingData))
+            if (result)
+                numCorrect++;
+
+        return new Result(configuration, 100.0 * numCorrect / testingData.length, (System.nanoTime() - start) / 1e9);
+    }
+
+    // returns the results sorted from most to least accurate
+    public static Result[] SortByAccuracy(Result[] results)
+    {
+        Result[] sorted = results.clone();
+        Arrays.sort(sorted, Comparator.comparingDouble((Result result) -> result.accuracy).reversed());
+        return sorted;
+    }
+
+    // prints the results as a table, most accurate first
+    public static void PrintResults(Result[] results)
+    {
+        System.out.printf("%12s %8s %8s %8s %8s %12s %12s%n", "learn rate", "batch", "layers", "nodes", "epochs", "accuracy", "seconds");
+        for (Result result : SortByAccuracy(results))
+        {
+            Configuration configuration = result.configuration;
+            System.out.printf("%12.4g %8d %8d %8d %8d %11.2f%% %12.1f%n", configuration.learnRate, configuration.batchSize, configuration.numMidLayers,
+                    configuration.numMidLayerNodes, configuration.numEpochs, result.accuracy, result.seconds);
+        }
+    }
+
+    // writes the results to a csv file, most accurate first, returns false if the file could not be written
+    public static boolean WriteResults(Result[] results, String filePath)
+    {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath)))
+        {
+            writer.write("learnRate,batchSize,numMidLayers,numMidLayerNodes,numEpochs,accuracy,seconds\n");
+            for (Result result : SortByAccuracy(results))
+            {
+                Configuration configuration = result.configuration;
+                writer.write(configuration.learnRate + "," + configuration.batchSize + "," + configuration.numMidLayers + "," + configuration.numMidLayerNodes
+                        + "," + configuration.numEpochs + "," + result.accuracy + "," + result.seconds + "\n");
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("There was an error during file write");
+            return false;
+        }
+
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int numWorkers = Integer.getInteger("sweep.workers", Runtime.getRuntime().availableProcessors());
+        String resultsFilePath = System.getProperty("sweep.results", "sweep_results.csv");
+
+        String trainingFilePath = System.getProperty("mnist.train"), testingFilePath = System.getProperty("mnist.test");
+        NetworkInput[] trainingData = (trainingFilePath != null) ? Main.LoadDataFile(trainingFilePath) : NetworkBenchmark.CreateDataset(DATASET_SIZE, 784, 1);
+        NetworkInput[] testingData = (testingFilePath != null) ? Main.LoadDataFile(testingFilePath) : NetworkBenchmark.CreateDataset(DATASET_SIZE, 784, 2);
+
+        // sweep the whole grid, or as many configurations sampled from the grid's ranges as given
+        List<Configuration> configurations = (args.length > 0)
+                ? CreateRandom(Integer.parseInt(args[0]), 1, LEARN_RATES[0], LEARN_RATES[LEARN_RATES.length - 1], BATCH_SIZES, NUM_MID_LAYERS, NUM_MID_LAYER_NODES, NUM_EPOCHS)
+                : CreateGrid(LEARN_RATES, BATCH_SIZES, NUM_MID_LAYERS, NUM_MID_LAYER_NODES, NUM_EPOCHS);
+
+        System.out.println("Sweeping " + configurations.size() + " configurations on " + numWorkers + " workers");
+        long start = System.nanoTime();
+        Result[] results = new HyperparameterSweep(trainingData, testingData, numWorkers).Run(configurations);
+        if (results == null)
+            return;
+
+        System.out.printf("Sweep finished in %.1fs%n%n", (System.nanoTime() - start) / 1e9);
+        PrintResults(results);
+        if (WriteResults(results, resultsFilePath))
+            System.out.println("\nResults written to " + resultsFilePath);
+    }
+}
@@ -0,0 +1,157 @@
+package com.company;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.AtomicLong;
+
+// local load generator for InferenceServer. Each client thread posts one image at a time as raw bytes and sends
+// the next as soon as the answer arrives, so the number of clients is the number of requests in flight. Given a
+// server URL as the only argument it drives that server and prints the server's own metrics afterwards. Without
+// one it starts servers in this process with each of the micro-batch settings below and compares them, serving
+// the network file named by the "mnist.network" system property, or a seeded untrained network if there is none.
+// The batch column is the mean number of requests per micro-batch, not counting requests answered from the cache.
+// The number of clients and seconds measured are set by the "load.clients" and "load.seconds" properties
+public class InferenceLoadGenerator
+{
+    // number of synthetic images posted, and seconds of load before measuring so the JIT compiler has settled
+    private static final int NUM_IMAGES = 1000, WARMUP_SECONDS = 2;
+
+    // largest micro-batch size, longest delay in microseconds and prediction cache capacity compared when serving
+    // in this process, the cache holds every image posted so it answers them all once warmed up
+    private static final int[] MAX_BATCH_SIZES = {1, 8, 32, 128, 32};
+    private static final long[] MAX_DELAYS_MICROS = {0, 500, 1000, 2000, 1000};
+    private static final int[] CACHE_CAPACITIES = {0, 0, 0, 0, NUM_IMAGES};
+
+    public static void main(String[] args) throws Exception
+    {
+        int numClients = Integer.getInteger("load.clients", 64), seconds = Integer.getInteger("load.seconds", 5);
+        byte[][] images = CreateImages();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        System.out.printf("%-28s %12s %12s %12s %12s %12s%n", "InferenceServer c=" + numClients, "requests/s", "p50 ms", "p99 ms", "batch", "errors");
+
+        // drive the given server
+        if (args.length > 0)
+        {
+            String url = args[0].replaceAll("/+$", "");
+            RunLoad(client, url, images, numClients, WARMUP_SECONDS);
+            PrintResults(url, RunLoad(client, url, images, numClients, seconds), "-");
+            System.out.println(client.send(HttpRequest.newBuilder(URI.create(url + "/metrics")).build(), HttpResponse.BodyHandlers.ofString()).body());
+            return;
+        }
+
+        // compare micro-batch settings on servers in this process
+        NetworkModel model = CreateModel();
+        if (model == null)
+            return;
+
+        for (int i = 0; i < MAX_BATCH_SIZES.length; i++)
+        {
+            InferenceServer server = new InferenceServer(model, 0, MAX_BATCH_SIZES[i], MAX_DELAYS_MICROS[i], CACHE_CAPACITIES[i]);
+            if (!server.Start())
+                return;
+
+            String url = "http://127.0.0.1:" + server.GetPort();
+            RunLoad(client, url, images, numClients, WARMUP_SECONDS);
+            long batchesBefore = server.GetNumBatches(), requestsBefore = server.GetNumRequests(), hitsBefore = GetNumHits(server);
+            LoadResults results = RunLoad(client, url, images, numClients, seconds);
+            long batchedRequests = server.GetNumRequests() - requestsBefore - (GetNumHits(server) - hitsBefore);
+            double meanBatchSize = (double) batchedRequests / Math.max(1, server.GetNumBatches() - batchesBefore);
+            server.Stop();
+
+            String name = "b=" + MAX_BATCH_SIZES[i] + " delay=" + MAX_DELAYS_MICROS[i] + "us" + ((CACHE_CAPACITIES[i] > 0) ? " cache" : "");
+            PrintResults(name, results, String.format("%.1f", meanBatchSize));
+        }
+    }
+
+    // returns the number of prediction cache hits of a server, 0 if it has no cache
+    private static long GetNumHits(InferenceServer server)
+    {
+        return (server.GetPredictionCache() != null) ? server.GetPredictionCache().GetNumHits() : 0;
+    }
+
+    // latencies and errors seen by the clients of one load run
+    private static final class LoadResults
+    {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final AtomicLong numErrors = new AtomicLong();
+        long elapsedNanos;
+    }
+
+    // runs numClients client threads against the server for the given number of seconds
+    private static LoadResults RunLoad(HttpClient client, String url, byte[][] images, int numClients, int seconds) throws InterruptedException
+    {
+        LoadResults results = new LoadResults();
+        URI predictUri = URI.create(url + "/predict");
+        long start = System.nanoTime(), end = start + seconds * 1_000_000_000L;
+
+        Thread[] clients = new Thread[numClients];
+        for (int c = 0; c < numClients; c++)
+        {
+            int firstImage = c;
+            clients[c] = new Thread(() ->
+            {
+                for (int i = firstImage; System.nanoTime() < end; i++)
+                {
+                    HttpRequest request = HttpRequest.newBuilder(predictUri)
+                            .header("Content-Type", "application/octet-stream")
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(images[i % images.length]))
+                            .build();
+
+                    long requestStart = System.nanoTime();
+                    try
+                    {
+                        if (client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode() == 200)
+                            results.latencies.Record(System.nanoTime() - requestStart);
+                        else
+                            results.numErrors.incrementAndGet();
+                    }
+                    catch (IOException e)
+                    {
+                        results.numErrors.incrementAndGet();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }, "LoadClient");
+            clients[c].start();
+        }
+
+        for (Thread thread : clients)
+            thread.join();
+
+        results.elapsedNanos = System.nanoTime() - start;
+        return results;
+    }
+
+    // prints one row of results
+    private static void PrintResults(String name, LoadResults results, String meanBatchSize)
+    {
+        System.out.printf("%-28s %12.0f %12.3f %12.3f %12s %12d%n", name, results.latencies.GetCount() / (results.elapsedNanos / 1e9),
+                results.latencies.GetPercentile(50) / 1e6, results.latencies.GetPercentile(99) / 1e6, meanBatchSize, results.numErrors.get());
+    }
+
+    // returns the raw pixels of the synthetic benchmark images
+    private static byte[][] CreateImages()
+    {
+        NetworkInput[] dataset = NetworkBenchmark.CreateDataset(NUM_IMAGES, 784, 1);
+        byte[][] images = new byte[dataset.length][784];
+        for (int i = 0; i < dataset.length; i++)
+            for (int j = 0; j < 784; j++)
+                images[i][j] = (byte) dataset[i].GetPixel(j);
+
+        return images;
+    }
+
+    // returns a model of the network file named by "mnist.network", or of a seeded untrained network, null if the file could not be loaded
+    private static NetworkModel CreateModel()
+    {
+        String filePath = System.getProperty("mnist.network");
+        NeuralNetwork network = (filePath != null) ? NeuralNetwork.CreateFromFile(filePath) : new NeuralNetwork(784, 1, 100, 10, 1);
+        return (network != null) ? network.CreateModel() : null;
+    }
+}
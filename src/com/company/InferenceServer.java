@@ -0,0 +1,435 @@
+package com.company;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// embeddable HTTP server answering predictions of a NetworkModel on the loopback address. Prediction requests are
+// queued for one batching thread, which coalesces them into micro-batches of up to maxBatchSize cases and runs each
+// micro-batch through one batched forward pass. A micro-batch runs as soon as it is full or as soon as its oldest
+// request has waited maxDelayMicros, so batching adds at most that much latency to a request. Requests are handled
+// on virtual threads when the runtime has them (Java 21 and later) and on a pool of HANDLER_THREADS platform threads
+// otherwise, each blocking until its micro-batch has run. With a prediction cache, images already answered are
+// answered from the cache without waiting for a micro-batch. A request whose micro-batch fails is answered with 500,
+// and one not answered within REQUEST_TIMEOUT_MILLIS, such as when the batching thread falls behind, with 503.
+// Endpoints:
+//     POST /predict  body holds the pixel values of one image as raw bytes when sent as application/octet-stream,
+//                    or otherwise as integers 0-255 separated by commas or whitespace, optionally in square brackets.
+//                    Answers with the prediction and output activations as JSON: {"prediction":7,"outputs":[...]}
+//     GET  /metrics  answers with request, micro-batch, throughput and latency counters since the server started as
+//                    JSON, latencies are in milliseconds from reading a request to answering it. Includes the
+//                    counters of the prediction cache if there is one
+public final class InferenceServer
+{
+    // number of platform threads handling requests when the runtime has no virtual threads, and number of
+    // connections waiting to be accepted before new ones are refused
+    private static final int HANDLER_THREADS = 200, BACKLOG = 1024;
+
+    // largest number of characters read for each pixel value of a text request body
+    private static final int MAX_CHARS_PER_VALUE = 8;
+
+    // longest time a request waits for its micro-batch to run before it is answered with 503
+    private static final long REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    // model answering predictions
+    private final NetworkModel model;
+
+    // port to listen on, 0 picks a free port when the server starts
+    private final int port;
+
+    // largest number of requests run as one micro-batch, and longest time a request waits for others to join it
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    // cache of predictions, null if caching is off. The model never changes, so every entry belongs to version 0
+    private final PredictionCache predictionCache;
+
+    // requests waiting for the batching thread
+    private final BlockingQueue<PendingPrediction> queue = new LinkedBlockingQueue<>();
+
+    // running server, its request handlers and batching thread, null while stopped
+    private HttpServer httpServer;
+    private ExecutorService handlerExecutor;
+    private Thread batchingThread;
+
+    // counters since the server started: requests answered, requests refused for bad input, requests whose
+    // micro-batch failed or timed out, micro-batches run
+    private final AtomicLong numRequests = new AtomicLong(), numRejected = new AtomicLong(), numFailed = new AtomicLong(), numBatches = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long startNanos;
+
+    // prediction request waiting to be run in a micro-batch, the batching thread fills in the prediction and
+    // output activations, or the error that failed the micro-batch, and then counts down done
+    private static final class PendingPrediction
+    {
+        final byte[] pixels;
+        final double[] input, outputs;
+        final long arrivalNanos;
+        final CountDownLatch done = new CountDownLatch(1);
+        int prediction;
+        Throwable error;
+
+        PendingPrediction(byte[] pixels, int numOutputs, long arrivalNanos)
+        {
+            this.pixels = pixels;
+            this.input = new double[pixels.length];
+            for (int i = 0; i < pixels.length; i++)
+                input[i] = NetworkInput.GetInputValue(pixels[i] & 0xFF);
+            this.outputs = new double[numOutputs];
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+
+    // constructor takes the model to serve, the port to listen on, the largest number of requests
+    // run as one micro-batch and the longest time in microseconds a request waits for others to join it.
+    // A maxBatchSize of 1 runs every request on its own
+    public InferenceServer(NetworkModel model, int port, int maxBatchSize, long maxDelayMicros)
+    {
+        this(model, port, maxBatchSize, maxDelayMicros, 0);
+    }
+
+    // alternate constructor that also caches the predictions of up to cacheCapacity images, 0 turns caching off
+    public InferenceServer(NetworkModel model, int port, int maxBatchSize, long maxDelayMicros, int cacheCapacity)
+    {
+        this.model = model;
+        this.port = port;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = Math.max(0, maxDelayMicros) * 1000;
+        predictionCache = (cacheCapacity > 0) ? new PredictionCache(cacheCapacity) : null;
+    }
+
+    // starts listening for requests, returns false and prints error message if the port could not be opened
+    public synchronized boolean Start()
+    {
+        if (httpServer != null)
+            return true;
+
+        try
+        {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        }
+        catch (IOException e)
+        {
+            System.out.println("The inference server could not listen on port " + port + ": " + e.getMessage());
+            return false;
+        }
+
+        // reset counters
+        numRequests.set(0);
+        numRejected.set(0);
+        numFailed.set(0);
+        numBatches.set(0);
+        startNanos = System.nanoTime();
+
+        // start batching thread before accepting requests
+        batchingThread = new Thread(this::RunBatches, "InferenceBatcher");
+        batchingThread.setDaemon(true);
+        batchingThread.start();
+
+        handlerExecutor = CreateHandlerExecutor();
+        httpServer.setExecutor(handlerExecutor);
+        httpServer.createContext("/predict", this::HandlePredict);
+        httpServer.createContext("/metrics", this::HandleMetrics);
+        httpServer.start();
+        return true;
+    }
+
+    // stops the server, waiting up to a second for requests being answered
+    public synchronized void Stop()
+    {
+        if (httpServer == null)
+            return;
+
+        httpServer.stop(1);
+        handlerExecutor.shutdownNow();
+        batchingThread.interrupt();
+        queue.clear();
+        httpServer = null;
+    }
+
+    // returns an executor running each request on its own virtual thread if the runtime has them, looked up by
+    // reflection so the server still builds and runs on Java 17, or a fixed pool of daemon platform threads otherwise
+    private static ExecutorService CreateHandlerExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newFixedThreadPool(HANDLER_THREADS, runnable ->
+            {
+                Thread thread = new Thread(runnable, "InferenceHandler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // takes requests off the queue and runs them in micro-batches until the server stops
+    private void RunBatches()
+    {
+        BatchWorkspace workspace = model.CreateWorkspace(maxBatchSize);
+        PendingPrediction[] batch = new PendingPrediction[maxBatchSize];
+
+        try
+        {
+            while (true)
+            {
+                // wait for the first request, then gather more until the batch is full or the first has waited too long
+                batch[0] = queue.take();
+                int batchSize = 1;
+                long deadline = batch[0].arrivalNanos + maxDelayNanos;
+                while (batchSize < maxBatchSize)
+                {
+                    PendingPrediction next = queue.poll();
+                    if (next == null)
+                    {
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0 || (next = queue.poll(wait, TimeUnit.NANOSECONDS)) == null)
+                            break;
+                    }
+                    batch[batchSize++] = next;
+                }
+
+                // a failed micro-batch fails only its own requests, the thread carries on with the next one
+                try
+                {
+                    RunBatch(batch, batchSize, workspace);
+                }
+                catch (Throwable e)
+                {
+                    System.out.println("The inference server failed to run a micro-batch: " + e);
+                    for (int i = 0; i < batchSize; i++)
+                    {
+                        batch[i].error = e;
+                        batch[i].done.countDown();
+                        batch[i] = null;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)  // server stopped
+        {
+            // fall through to exit
+        }
+    }
+
+    // runs the first batchSize requests of the batch through one batched forward pass and wakes their handlers
+    private void RunBatch(PendingPrediction[] batch, int batchSize, BatchWorkspace workspace)
+    {
+        double[][] inputs = new double[batchSize][], outputs = new double[batchSize][];
+        for (int i = 0; i < batchSize; i++)
+        {
+            inputs[i] = batch[i].input;
+            outputs[i] = batch[i].outputs;
+        }
+
+        int[] predictions = model.Predict(inputs, outputs, workspace);
+        numBatches.incrementAndGet();
+
+        for (int i = 0; i < batchSize; i++)
+        {
+            batch[i].prediction = predictions[i];
+            batch[i].done.countDown();
+            batch[i] = null;
+        }
+    }
+
+    // answers POST /predict
+    private void HandlePredict(HttpExchange exchange) throws IOException
+    {
+        long arrivalNanos = System.nanoTime();
+        try (exchange)
+        {
+            if (!exchange.getRequestMethod().equals("POST"))
+            {
+                SendJson(exchange, 405, "{\"error\":\"use POST\"}");
+                return;
+            }
+
+            // read pixels
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            byte[] pixels = ReadPixels(exchange.getRequestBody(), contentType != null && contentType.startsWith("application/octet-stream"));
+            if (pixels == null)
+            {
+                numRejected.incrementAndGet();
+                SendJson(exchange, 400, "{\"error\":\"expected " + model.GetNumInputs() + " pixel values between 0 and 255\"}");
+                return;
+            }
+
+            // answer from cache, or queue request and wait for its micro-batch to run
+            int prediction = -1;
+            double[] outputs = new double[model.GetNumOutputs()];
+            if (predictionCache != null)
+                prediction = predictionCache.Get(pixels, 0, outputs);
+            if (prediction < 0)
+            {
+                PendingPrediction pending = new PendingPrediction(pixels, model.GetNumOutputs(), arrivalNanos);
+                queue.add(pending);
+                if (!pending.done.await(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                {
+                    numFailed.incrementAndGet();
+                    SendJson(exchange, 503, "{\"error\":\"timed out waiting for a prediction\"}");
+                    return;
+                }
+                if (pending.error != null)
+                {
+                    numFailed.incrementAndGet();
+                    SendJson(exchange, 500, "{\"error\":\"prediction failed\"}");
+                    return;
+                }
+
+                prediction = pending.prediction;
+                outputs = pending.outputs;
+                if (predictionCache != null)
+                    predictionCache.Put(pixels, 0, prediction, outputs);
+            }
+
+            StringBuilder json = new StringBuilder("{\"prediction\":").append(prediction).append(",\"outputs\":[");
+            for (int i = 0; i < outputs.length; i++)
+                json.append((i > 0) ? "," : "").append(outputs[i]);
+            SendJson(exchange, 200, json.append("]}").toString());
+
+            numRequests.incrementAndGet();
+            latencies.Record(System.nanoTime() - arrivalNanos);
+        }
+        catch (InterruptedException e)  // server stopped while waiting
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // answers GET /metrics
+    private void HandleMetrics(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            SendJson(exchange, 200, GetMetricsJson());
+        }
+    }
+
+    // reads the pixel values of one image from a request body, returns null if the body does not hold exactly one
+    // value between 0 and 255 for each input
+    private byte[] ReadPixels(InputStream body, boolean isBinary) throws IOException
+    {
+        // read one byte past the longest valid body to tell if there is more
+        byte[] bytes = body.readNBytes((isBinary ? 1 : MAX_CHARS_PER_VALUE) * model.GetNumInputs() + 1);
+        if (isBinary)
+            return (bytes.length == model.GetNumInputs()) ? bytes : null;
+
+        byte[] pixels = new byte[model.GetNumInputs()];
+        if (bytes.length > MAX_CHARS_PER_VALUE * pixels.length)
+            return null;
+
+        // parse digits by hand, treating brackets as separators so JSON arrays are accepted
+        int numValues = 0, value = -1;
+        for (int i = 0; i <= bytes.length; i++)
+        {
+            int c = (i < bytes.length) ? bytes[i] : ',';
+            if (c >= '0' && c <= '9')
+            {
+                value = (value < 0) ? c - '0' : value * 10 + (c - '0');
+                if (value > 255)
+                    return null;
+            }
+            else if (c == ',' || c == '[' || c == ']' || Character.isWhitespace(c))
+            {
+                if (value < 0)
+                    continue;
+                if (numValues == pixels.length)
+                    return null;
+
+                pixels[numValues++] = (byte) value;
+                value = -1;
+            }
+            else
+            {
+                return null;
+            }
+        }
+
+        return (numValues == pixels.length) ? pixels : null;
+    }
+
+    // sends a JSON response with the given status code
+    private static void SendJson(HttpExchange exchange, int status, String json) throws IOException
+    {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody())
+        {
+            output.write(bytes);
+        }
+    }
+
+    // returns the counters since the server started as JSON, as answered by GET /metrics
+    public String GetMetricsJson()
+    {
+        // mean batch size only counts requests that went through a micro-batch
+        long requests = numRequests.get(), batches = numBatches.get();
+        long batchedRequests = requests - ((predictionCache != null) ? predictionCache.GetNumHits() : 0);
+        return String.format(Locale.ROOT, "{\"requests\":%d,\"rejected\":%d,\"failed\":%d,\"batches\":%d,\"meanBatchSize\":%.2f,\"requestsPerSecond\":%.1f,"
+                        + "\"latencyMs\":{\"mean\":%.3f,\"p50\":%.3f,\"p99\":%.3f,\"max\":%.3f}%s}",
+                requests, numRejected.get(), numFailed.get(), batches, (batches > 0) ? (double) batchedRequests / batches : 0, GetRequestsPerSecond(),
+                latencies.GetMean() / 1e6, latencies.GetPercentile(50) / 1e6, latencies.GetPercentile(99) / 1e6, latencies.GetMax() / 1e6,
+                (predictionCache != null) ? ",\"cache\":" + predictionCache.GetMetricsJson() : "");
+    }
+
+    // region Getters
+    public int GetPort()
+    {
+        return (httpServer != null) ? httpServer.getAddress().getPort() : port;
+    }
+
+    public long GetNumRequests()
+    {
+        return numRequests.get();
+    }
+
+    public long GetNumRejected()
+    {
+        return numRejected.get();
+    }
+
+    // getter for number of requests answered with 500 or 503 because their micro-batch failed or timed out
+    public long GetNumFailed()
+    {
+        return numFailed.get();
+    }
+
+    public long GetNumBatches()
+    {
+        return numBatches.get();
+    }
+
+    public double GetRequestsPerSecond()
+    {
+        return numRequests.get() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    public LatencyHistogram GetLatencies()
+    {
+        return latencies;
+    }
+
+    // returns the prediction cache, null if caching is off
+    public PredictionCache GetPredictionCache()
+    {
+        return predictionCache;
+    }
+    // endregion
+}
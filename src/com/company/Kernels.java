@@ -0,0 +1,71 @@
+package com.company;
+
+// dense vector kernels used by the forward pass, back propagation and gradient updates of each layer.
+// The backend is chosen when the class loads from the "mnist.kernels" system property ("scalar" or
+// "vector", default "vector") and can be changed at runtime with Select. The vector backend needs
+// the JVM option --add-modules jdk.incubator.vector, without it the scalar backend is used
+public abstract class Kernels
+{
+    // backend used by all layers
+    private static Kernels current = Create(System.getProperty("mnist.kernels", "vector"));
+
+    // returns the dot-product of length values of a starting at aOffset with length values of b starting at bOffset
+    public abstract double Dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    // computes the dot-products of length values of a starting at aOffset with four vectors of b starting at
+    // bOffset and spaced bStride apart, storing them in results starting at resultsOffset and spaced resultsStride
+    // apart. The sums are kept in locals until stored, so callers need no scratch array. Each sum is added in the
+    // same order as Dot
+    public abstract void Dot4(double[] a, int aOffset, double[] b, int bOffset, int bStride, int length, double[] results, int resultsOffset, int resultsStride);
+
+    // adds alpha times length values of x starting at xOffset to length values of y starting at yOffset
+    public abstract void Axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    // single precision versions of Dot, Dot4 and Axpy
+    public abstract float Dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+    public abstract void Dot4(float[] a, int aOffset, float[] b, int bOffset, int bStride, int length, float[] results, int resultsOffset, int resultsStride);
+    public abstract void Axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    // returns the dot-product of length 8-bit values of a starting at aOffset with length 8-bit values of b starting
+    // at bOffset, accumulated in 32-bit integers. Values must be in [-127, 127]
+    public abstract int Dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    // getter for name of backend
+    public abstract String GetName();
+
+    // getter for current backend
+    public static Kernels Get()
+    {
+        return current;
+    }
+
+    // selects backend by name, returns false and keeps the current backend if the named backend is not available
+    public static boolean Select(String name)
+    {
+        Kernels kernels = Create(name);
+        if (!kernels.GetName().equals(name))
+            return false;
+
+        current = kernels;
+        return true;
+    }
+
+    // creates the named backend, falling back to the scalar backend if the vector module is not present
+    private static Kernels Create(String name)
+    {
+        if (name.equals("vector"))
+        {
+            try
+            {
+                // loaded by name so this class does not depend on the incubator module
+                return (Kernels) Class.forName("com.company.VectorKernels").getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException | LinkageError e)
+            {
+                return new ScalarKernels();
+            }
+        }
+
+        return new ScalarKernels();
+    }
+}
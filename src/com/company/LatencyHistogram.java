@@ -0,0 +1,87 @@
+package com.company;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// histogram of latencies in nanoseconds for reporting percentiles, safe to record into from any number of threads
+// without locking. Values below SUB_BUCKETS get a bucket each, and every power of two above that is split into
+// SUB_BUCKETS equal buckets, so a percentile is within 1 / SUB_BUCKETS (about 3%) of the true value while the
+// histogram stays a fixed 15 KB of counters however many values are recorded
+public final class LatencyHistogram
+{
+    // number of buckets per power of two
+    private static final int SUB_BUCKET_BITS = 5, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // enough buckets for every non-negative long
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // number of values recorded in each bucket
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    // number of values recorded, their sum and the largest of them
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+    // records a latency, negative values are recorded as 0
+    public void Record(long nanos)
+    {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(GetBucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    // returns the latency below which the given percentage of recorded latencies fall, as the middle of its
+    // bucket, or 0 if nothing has been recorded. Values recorded while this runs may or may not be counted
+    public long GetPercentile(double percentile)
+    {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+
+        // find bucket holding the value of that rank
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total)), seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(GetBucketMiddle(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    // getter for number of latencies recorded
+    public long GetCount()
+    {
+        return count.get();
+    }
+
+    // returns the mean of the recorded latencies, or 0 if nothing has been recorded
+    public double GetMean()
+    {
+        long total = count.get();
+        return (total > 0) ? (double) sum.get() / total : 0;
+    }
+
+    // getter for largest latency recorded
+    public long GetMax()
+    {
+        return max.get();
+    }
+
+    // returns the bucket of a non-negative value, values below 2 * SUB_BUCKETS map to themselves and every power of
+    // two above is split by the SUB_BUCKET_BITS bits below its top bit
+    private static int GetBucket(long value)
+    {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // returns the middle of the range of values a bucket holds, the inverse of GetBucket
+    private static long GetBucketMiddle(int bucket)
+    {
+        int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+        long lowest = (long) (bucket - shift * SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) >> 1);
+    }
+}
@@ -0,0 +1,447 @@
+package com.company;
+import java.lang.Math;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Layer
+{
+    // number of weights processed as one cache block by the batched forward pass
+    private static final int WEIGHT_BLOCK_SIZE = 4096;
+
+    // layer dimensions
+    private final int numInputs, numNodes;
+
+    // precision the weights and biases are stored in, and that activations and gradients are computed in
+    private final Precision precision;
+
+    // weights are stored as one contiguous row-major matrix, row i holds
+    // the numInputs weights feeding node i of this layer
+    // only the arrays of the layer's precision are allocated, the others are null
+    private final double[] weights;
+    private final double[] biases;
+    private final float[] floatWeights;
+    private final float[] floatBiases;
+
+    // activation function applied to the weighted sums of the layer, softmax layers are
+    // output layers whose bias gradients are calculated for cross-entropy cost
+    private Activation activation;
+
+    // constructor takes the number of inputs feeding the layer and the number of nodes in the
+    // layer, initializes weights and biases with random values between -1.0 and 1.0
+    public Layer(int numInputs, int numNodes, Random random)
+    {
+        this(numInputs, numNodes, random, Precision.DOUBLE);
+    }
+
+    // alternate constructor that stores the layer in the given precision, single precision layers draw the
+    // same random values as double precision layers and round them, so both start from the same weights
+    public Layer(int numInputs, int numNodes, Random random, Precision precision)
+    {
+        this(numInputs, new LayerSpec(numNodes, Activation.SIGMOID, LayerSpec.Initialization.UNIFORM), random, precision);
+    }
+
+    // alternate constructor that takes the width, activation function and initialization of the layer from a spec
+    public Layer(int numInputs, LayerSpec spec, Random random, Precision precision)
+    {
+        // initialize variables
+        this.numInputs = numInputs;
+        this.numNodes = spec.GetNumNodes();
+        this.precision = precision;
+        activation = spec.GetActivation();
+        weights = (precision == Precision.DOUBLE) ? new double[numNodes * numInputs] : null;
+        biases = (precision == Precision.DOUBLE) ? new double[numNodes] : null;
+        floatWeights = (precision == Precision.SINGLE) ? new float[numNodes * numInputs] : null;
+        floatBiases = (precision == Precision.SINGLE) ? new float[numNodes] : null;
+
+        if (spec.GetInitialization() == LayerSpec.Initialization.UNIFORM)
+        {
+            // generate random initial biases and weights for each node
+            for (int i = 0; i < numNodes; i++)
+            {
+                SetBias(i, (random.nextDouble() > 0.5) ? random.nextDouble() : -random.nextDouble());
+                for (int j = 0; j < numInputs; j++)
+                    SetWeight(i, j, (random.nextDouble() > 0.5) ? random.nextDouble() : -random.nextDouble());
+            }
+        }
+        else
+        {
+            // biases start at 0, weights are drawn with a deviation that keeps the
+            // spread of the weighted sums close to the spread of the inputs
+            double deviation = activation.GetInitialWeightDeviation(numInputs);
+            for (int i = 0; i < numNodes; i++)
+                for (int j = 0; j < numInputs; j++)
+                    SetWeight(i, j, random.nextGaussian() * deviation);
+        }
+    }
+
+    // copy constructor, creates a layer with its own copy of the other layer's weights and biases
+    public Layer(Layer other)
+    {
+        numInputs = other.numInputs;
+        numNodes = other.numNodes;
+        precision = other.precision;
+        weights = (other.weights != null) ? other.weights.clone() : null;
+        biases = (other.biases != null) ? other.biases.clone() : null;
+        floatWeights = (other.floatWeights != null) ? other.floatWeights.clone() : null;
+        floatBiases = (other.floatBiases != null) ? other.floatBiases.clone() : null;
+        activation = other.activation;
+    }
+
+    // calculates the activation of every node in the layer from the given input vector
+    // as one dense matrix-vector product followed by the layer's activation function
+    public void CalculateActivations(double[] input, double[] activations)
+    {
+        Kernels kernels = Kernels.Get();
+        for (int i = 0; i < numNodes; i++)
+        {
+            // perform dot-product of node's weight row with input
+            double sum = kernels.Dot(weights, i * numInputs, input, 0, numInputs);
+
+            // add bias to sum, which is used as input for activation function
+            activations[i] = sum + biases[i];
+        }
+
+        activation.Apply(activations, numNodes, 1);
+    }
+
+    // calculates the activations of a batch of cases as one matrix-matrix product, inputs holds numCases
+    // input vectors and activations receives numCases activation vectors, both flat and row-major.
+    // Nodes are processed in blocks whose weights stay in cache while every case streams past them,
+    // and each weight load is shared by four cases. Sums are added in the same order as the
+    // single case version so both give identical activations
+    public void CalculateActivations(double[] inputs, double[] activations, int numCases)
+    {
+        Kernels kernels = Kernels.Get();
+        int nodeBlockSize = Math.max(1, WEIGHT_BLOCK_SIZE / numInputs);
+
+        for (int blockStart = 0; blockStart < numNodes; blockStart += nodeBlockSize)
+        {
+            int blockEnd = Math.min(numNodes, blockStart + nodeBlockSize);
+
+            // run groups of four cases through every node in the block
+            int c = 0;
+            for (; c + 4 <= numCases; c += 4)
+            {
+                for (int i = blockStart; i < blockEnd; i++)
+                {
+                    // sums are stored straight into the activations of the four cases, then biased
+                    kernels.Dot4(weights, i * numInputs, inputs, c * numInputs, numInputs, numInputs, activations, c * numNodes + i, numNodes);
+
+                    activations[c * numNodes + i] += biases[i];
+                    activations[(c + 1) * numNodes + i] += biases[i];
+                    activations[(c + 2) * numNodes + i] += biases[i];
+                    activations[(c + 3) * numNodes + i] += biases[i];
+                }
+            }
+
+            // run remaining cases one at a time
+            for (; c < numCases; c++)
+            {
+                for (int i = blockStart; i < blockEnd; i++)
+                {
+                    double sum = kernels.Dot(weights, i * numInputs, inputs, c * numInputs, numInputs);
+                    activations[c * numNodes + i] = sum + biases[i];
+                }
+            }
+        }
+
+        // apply activation function to the weighted sums of every case at once
+        activation.Apply(activations, numNodes, numCases);
+    }
+
+    // single precision version of CalculateActivations
+    public void CalculateActivations(float[] input, float[] activations)
+    {
+        Kernels kernels = Kernels.Get();
+        for (int i = 0; i < numNodes; i++)
+            activations[i] = kernels.Dot(floatWeights, i * numInputs, input, 0, numInputs) + floatBiases[i];
+
+        activation.Apply(activations, numNodes, 1);
+    }
+
+    // single precision version of the batched CalculateActivations
+    public void CalculateActivations(float[] inputs, float[] activations, int numCases)
+    {
+        Kernels kernels = Kernels.Get();
+        int nodeBlockSize = Math.max(1, WEIGHT_BLOCK_SIZE / numInputs);
+
+        for (int blockStart = 0; blockStart < numNodes; blockStart += nodeBlockSize)
+        {
+            int blockEnd = Math.min(numNodes, blockStart + nodeBlockSize);
+
+            // run groups of four cases through every node in the block
+            int c = 0;
+            for (; c + 4 <= numCases; c += 4)
+            {
+                for (int i = blockStart; i < blockEnd; i++)
+                {
+                    // sums are stored straight into the activations of the four cases, then biased
+                    kernels.Dot4(floatWeights, i * numInputs, inputs, c * numInputs, numInputs, numInputs, activations, c * numNodes + i, numNodes);
+
+                    activations[c * numNodes + i] += floatBiases[i];
+                    activations[(c + 1) * numNodes + i] += floatBiases[i];
+                    activations[(c + 2) * numNodes + i] += floatBiases[i];
+                    activations[(c + 3) * numNodes + i] += floatBiases[i];
+                }
+            }
+
+            // run remaining cases one at a time
+            for (; c < numCases; c++)
+            {
+                for (int i = blockStart; i < blockEnd; i++)
+                    activations[c * numNodes + i] = kernels.Dot(floatWeights, i * numInputs, inputs, c * numInputs, numInputs) + floatBiases[i];
+            }
+        }
+
+        activation.Apply(activations, numNodes, numCases);
+    }
+
+    // calculates bias gradients for the output layer using the cross-entropy cost for softmax layers, or the
+    // quadratic cost otherwise, correctOutputVector is the one-hot vector of the correct answer
+    public void CalculateOutputBiasGradients(double[] activations, int[] correctOutputVector, double[] biasGradients)
+    {
+        if (activation == Activation.SOFTMAX)  // derivatives of softmax and cross-entropy cancel out to a - y
+        {
+            for (int i = 0; i < numNodes; i++)
+                biasGradients[i] = activations[i] - correctOutputVector[i];
+            return;
+        }
+
+        if (activation != Activation.SIGMOID)
+        {
+            for (int i = 0; i < numNodes; i++)
+                biasGradients[i] = activations[i] - correctOutputVector[i];
+            activation.MultiplyDerivatives(activations, biasGradients, numNodes);
+            return;
+        }
+
+        // sigmoid gradients are multiplied in this order so sigmoid networks train exactly as they always have
+        for (int i = 0; i < numNodes; i++)
+            biasGradients[i] = (activations[i] - correctOutputVector[i]) * activations[i] * (1 - activations[i]);
+    }
+
+    // single precision version of CalculateOutputBiasGradients
+    public void CalculateOutputBiasGradients(float[] activations, int[] correctOutputVector, float[] biasGradients)
+    {
+        if (activation == Activation.SOFTMAX)
+        {
+            for (int i = 0; i < numNodes; i++)
+                biasGradients[i] = activations[i] - correctOutputVector[i];
+            return;
+        }
+
+        if (activation != Activation.SIGMOID)
+        {
+            for (int i = 0; i < numNodes; i++)
+                biasGradients[i] = activations[i] - correctOutputVector[i];
+            activation.MultiplyDerivatives(activations, biasGradients, numNodes);
+            return;
+        }
+
+        for (int i = 0; i < numNodes; i++)
+            biasGradients[i] = (activations[i] - correctOutputVector[i]) * activations[i] * (1 - activations[i]);
+    }
+
+    // calculates bias gradients for a hidden layer from the bias gradients of the layer after it,
+    // walks nextLayer's weight matrix row by row so memory is read contiguously
+    public void CalculateBiasGradients(double[] activations, double[] biasGradients, Layer nextLayer, double[] nextBiasGradients)
+    {
+        // zero out bias gradients before accumulating Sum(Weight[jk] * BiasGradient[k])
+        for (int i = 0; i < numNodes; i++)
+            biasGradients[i] = 0;
+
+        Kernels kernels = Kernels.Get();
+        for (int k = 0; k < nextLayer.numNodes; k++)
+            kernels.Axpy(nextBiasGradients[k], nextLayer.weights, k * nextLayer.numInputs, biasGradients, 0, numNodes);
+
+        // multiply by derivative of the activation function
+        activation.MultiplyDerivatives(activations, biasGradients, numNodes);
+    }
+
+    // single precision version of CalculateBiasGradients
+    public void CalculateBiasGradients(float[] activations, float[] biasGradients, Layer nextLayer, float[] nextBiasGradients)
+    {
+        Arrays.fill(biasGradients, 0);
+
+        Kernels kernels = Kernels.Get();
+        for (int k = 0; k < nextLayer.numNodes; k++)
+            kernels.Axpy(nextBiasGradients[k], nextLayer.floatWeights, k * nextLayer.numInputs, biasGradients, 0, numNodes);
+
+        activation.MultiplyDerivatives(activations, biasGradients, numNodes);
+    }
+
+    // adds the gradients of the current training case to the mini-batch sums,
+    // input is the vector that was fed into the layer on the forward pass
+    public void AccumulateGradients(double[] input, double[] biasGradients, double[] sumBiasGradients, double[] sumWeightGradients)
+    {
+        Kernels kernels = Kernels.Get();
+        for (int i = 0; i < numNodes; i++)
+        {
+            sumBiasGradients[i] += biasGradients[i];
+            kernels.Axpy(biasGradients[i], input, 0, sumWeightGradients, i * numInputs, numInputs);
+        }
+    }
+
+    // single precision version of AccumulateGradients
+    public void AccumulateGradients(float[] input, float[] biasGradients, float[] sumBiasGradients, float[] sumWeightGradients)
+    {
+        Kernels kernels = Kernels.Get();
+        for (int i = 0; i < numNodes; i++)
+        {
+            sumBiasGradients[i] += biasGradients[i];
+            kernels.Axpy(biasGradients[i], input, 0, sumWeightGradients, i * numInputs, numInputs);
+        }
+    }
+
+    // applies the weight and bias gradient sums to the weights and biases with the given optimizer,
+    // layerIndex is the index of this layer in the network, then zeroes out the sums for the next mini-batch
+    public void ApplyGradients(Optimizer optimizer, int layerIndex, double learnRate, int batchSize, double[] sumBiasGradients, double[] sumWeightGradients)
+    {
+        optimizer.Apply(layerIndex, learnRate, batchSize, biases, sumBiasGradients, weights, sumWeightGradients);
+        Arrays.fill(sumBiasGradients, 0);
+        Arrays.fill(sumWeightGradients, 0);
+    }
+
+    // single precision version of ApplyGradients
+    public void ApplyGradients(Optimizer optimizer, int layerIndex, float learnRate, int batchSize, float[] sumBiasGradients, float[] sumWeightGradients)
+    {
+        optimizer.Apply(layerIndex, learnRate, batchSize, floatBiases, sumBiasGradients, floatWeights, sumWeightGradients);
+        Arrays.fill(sumBiasGradients, 0);
+        Arrays.fill(sumWeightGradients, 0);
+    }
+
+    // copies the weights and biases of another layer of the same size and precision into this layer
+    public void CopyParameters(Layer source)
+    {
+        if (precision == Precision.DOUBLE)
+        {
+            System.arraycopy(source.weights, 0, weights, 0, weights.length);
+            System.arraycopy(source.biases, 0, biases, 0, biases.length);
+        }
+        else
+        {
+            System.arraycopy(source.floatWeights, 0, floatWeights, 0, floatWeights.length);
+            System.arraycopy(source.floatBiases, 0, floatBiases, 0, floatBiases.length);
+        }
+    }
+
+    // writes the biases followed by the row-major weights of the layer into the buffer, in the layer's precision
+    public void WriteParameters(ByteBuffer buffer)
+    {
+        if (precision == Precision.DOUBLE)
+            buffer.asDoubleBuffer().put(biases).put(weights);
+        else
+            buffer.asFloatBuffer().put(floatBiases).put(floatWeights);
+        buffer.position(buffer.position() + GetNumParameters() * precision.GetNumBytes());
+    }
+
+    // reads the biases followed by the row-major weights of the layer from the buffer, where they are
+    // stored in the given precision, converting them to the layer's precision if it differs
+    public void ReadParameters(ByteBuffer buffer, Precision bufferPrecision)
+    {
+        if (bufferPrecision == precision)  // copy values straight into parameter arrays
+        {
+            if (precision == Precision.DOUBLE)
+                buffer.asDoubleBuffer().get(biases).get(weights);
+            else
+                buffer.asFloatBuffer().get(floatBiases).get(floatWeights);
+        }
+        else  // convert values one at a time
+        {
+            ByteBuffer values = buffer.duplicate().order(buffer.order());
+            for (int i = 0; i < numNodes; i++)
+                SetBias(i, (bufferPrecision == Precision.DOUBLE) ? values.getDouble() : values.getFloat());
+            for (int i = 0; i < numNodes; i++)
+                for (int j = 0; j < numInputs; j++)
+                    SetWeight(i, j, (bufferPrecision == Precision.DOUBLE) ? values.getDouble() : values.getFloat());
+        }
+        buffer.position(buffer.position() + GetNumParameters() * bufferPrecision.GetNumBytes());
+    }
+
+    // region GettersAndSetters
+    // getter for number of inputs
+    public int GetNumInputs()
+    {
+        return numInputs;
+    }
+
+    // getter for number of nodes
+    public int GetNumNodes()
+    {
+        return numNodes;
+    }
+
+    // getter for precision of the layer
+    public Precision GetPrecision()
+    {
+        return precision;
+    }
+
+    // getter for activation function of the layer
+    public Activation GetActivation()
+    {
+        return activation;
+    }
+
+    // setter for activation function of the layer
+    public void SetActivation(Activation activation)
+    {
+        this.activation = activation;
+    }
+
+    // getter for number of parameters (biases and weights) in the layer
+    public int GetNumParameters()
+    {
+        return numNodes + numNodes * numInputs;
+    }
+
+    // getter for the bias of a node
+    public double GetBias(int node)
+    {
+        return (precision == Precision.DOUBLE) ? biases[node] : floatBiases[node];
+    }
+
+    // setter for the bias of a node, used in loading network
+    public void SetBias(int node, double bias)
+    {
+        if (precision == Precision.DOUBLE)
+            biases[node] = bias;
+        else
+            floatBiases[node] = (float) bias;
+    }
+
+    // getter for a single weight feeding a node
+    public double GetWeight(int node, int input)
+    {
+        return (precision == Precision.DOUBLE) ? weights[node * numInputs + input] : floatWeights[node * numInputs + input];
+    }
+
+    // setter for a single weight feeding a node
+    public void SetWeight(int node, int input, double weight)
+    {
+        if (precision == Precision.DOUBLE)
+            weights[node * numInputs + input] = weight;
+        else
+            floatWeights[node * numInputs + input] = (float) weight;
+    }
+
+    // setter for the weights of a node, copies the values into the node's row
+    public void SetWeights(int node, double[] nodeWeights)
+    {
+        if (precision == Precision.DOUBLE)
+            System.arraycopy(nodeWeights, 0, weights, node * numInputs, numInputs);
+        else
+            for (int i = 0; i < numInputs; i++)
+                floatWeights[node * numInputs + i] = (float) nodeWeights[i];
+    }
+
+    // alternate setter for weights of a node, takes an array of strings and converts them to doubles
+    public void SetWeights(int node, String[] strWeights)
+    {
+        // parse doubles from the string of weights
+        for (int i = 0; i < numInputs; i++)
+            SetWeight(node, i, Double.parseDouble(strWeights[i]));
+    }
+    // endregion
+}
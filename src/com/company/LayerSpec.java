@@ -0,0 +1,64 @@
+package com.company;
+
+// width, activation function and initial weights of one layer of a network, as built by NeuralNetwork.Builder
+// and stored in network files
+public final class LayerSpec
+{
+    // ways to draw the initial weights and biases of a layer:
+    //     UNIFORM  biases and weights uniformly random between -1.0 and 1.0, the original initialization kept by
+    //              the NeuralNetwork constructors so seeded networks are the same as before
+    //     SCALED   zero biases and normally distributed weights with the deviation given by the activation,
+    //              Xavier for sigmoid, tanh and softmax layers and He for the ReLU family
+    public enum Initialization
+    {
+        UNIFORM,
+        SCALED
+    }
+
+    // number of nodes in the layer
+    private final int numNodes;
+
+    // activation function of the layer
+    private final Activation activation;
+
+    // initialization of the weights and biases
+    private final Initialization initialization;
+
+    // constructor takes the width and activation function of the layer, weights are scaled to the activation
+    public LayerSpec(int numNodes, Activation activation)
+    {
+        this(numNodes, activation, Initialization.SCALED);
+    }
+
+    // alternate constructor that sets the initialization
+    public LayerSpec(int numNodes, Activation activation, Initialization initialization)
+    {
+        this.numNodes = numNodes;
+        this.activation = activation;
+        this.initialization = initialization;
+    }
+
+    // getter for number of nodes in the layer
+    public int GetNumNodes()
+    {
+        return numNodes;
+    }
+
+    // getter for activation function of the layer
+    public Activation GetActivation()
+    {
+        return activation;
+    }
+
+    // getter for initialization of the weights and biases
+    public Initialization GetInitialization()
+    {
+        return initialization;
+    }
+
+    @Override
+    public String toString()
+    {
+        return numNodes + " " + activation;
+    }
+}
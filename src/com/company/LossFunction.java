@@ -0,0 +1,28 @@
+package com.company;
+
+// cost functions a network can be trained with, each paired with the activation of the output layer:
+//     QUADRATIC      sigmoid outputs with cost 0.5 * Sum((a - y)^2), the default, also used for output layers of any
+//                    other activation but softmax. The sigmoid output gradient (a - y) * a * (1 - a) shrinks
+//                    towards 0 when an output saturates, even if it is wrong
+//     CROSS_ENTROPY  softmax outputs with cost -ln(a[correct output]). The output gradient is a - y,
+//                    so saturated wrong outputs still learn quickly. Learning rates from 0.5 to 3.0 work
+//                    with gradient descent, as they do with quadratic cost
+public enum LossFunction
+{
+    QUADRATIC(Activation.SIGMOID),
+    CROSS_ENTROPY(Activation.SOFTMAX);
+
+    // activation of the output layer trained with this cost, or switched to by NeuralNetwork.SetLossFunction
+    private final Activation outputActivation;
+
+    LossFunction(Activation outputActivation)
+    {
+        this.outputActivation = outputActivation;
+    }
+
+    // getter for the activation of the output layer trained with this cost
+    public Activation GetOutputActivation()
+    {
+        return outputActivation;
+    }
+}
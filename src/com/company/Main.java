@@ -8,11 +8,15 @@
     determines that the digit is supposed to be. By default, main will instantiate a NeuralNetwork object
     with the required specifications for the MNIST Neural Network, but a NeuralNetwork object can be instantiated
     with a variable number of inputs, hidden layers, nodes in hidden layers, and nodes in output layer.
+    Given a command such as "train" or "evaluate" as its first argument, main runs that command without the
+    menu and prints its result as JSON, see CommandLine for the commands and their flags.
  */
 
 package com.company;
 import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.Arrays;
+import java.util.Random;
 import java.util.Scanner;
 
 public class Main
@@ -20,20 +24,101 @@ public class Main
     // boolean determines whether file paths are gotten from command line or hardcoded into program
     static final boolean USE_CMD_ARGS = false;
 
-    // hardcoded values for training and testing dataset size
-    static final int TRAINING_DATA_SIZE = 60000, TESTING_DATA_SIZE = 10000;
+    // boolean determines whether input values are left un-normalized for debugging
+    static final boolean DEBUG = false;
+
+    // boolean determines whether csv datasets are cached in a compact binary file next to the csv file,
+    // which is memory-mapped on later runs instead of parsing the csv again
+    static final boolean USE_DATASET_CACHE = true;
+
+    // precision the network is stored and trained in, Precision.SINGLE halves memory use and
+    // doubles SIMD throughput at a small cost in accuracy
+    static final Precision PRECISION = Precision.DOUBLE;
+
+    // optimizer used for training and its learning rate, one of "sgd", "momentum", "nesterov" or "adam", see Optimizer
+    // for learning rates that suit each of them
+    static final String OPTIMIZER = "sgd";
+    static final double LEARN_RATE = 3.0;
+
+    // cost function the network is trained with, LossFunction.CROSS_ENTROPY trains softmax outputs
+    static final LossFunction LOSS_FUNCTION = LossFunction.QUADRATIC;
+
+    // boolean determines whether the metrics of each training epoch are printed and published over JMX, off by
+    // default so training prints only what it always did
+    static final boolean REPORT_TRAINING_METRICS = false;
+
+    // number of training inputs held out as validation data, which is tested after each epoch for early stopping
+    // and training metrics, 10000 is a usual choice for MNIST. If 0 all training inputs are trained on, as they
+    // always were, and the testing data is used for training metrics
+    static final int VALIDATION_DATA_SIZE = 0;
+
+    // number of epochs without a better validation accuracy before training stops early and restores the best
+    // weights, 0 turns early stopping off
+    static final int EARLY_STOPPING_PATIENCE = 5;
+
+    // boolean determines whether training writes checkpoints, off by default so training leaves no files behind
+    // as it always did. The file checkpoints are written to, and read from when training is resumed through the
+    // menu, and the number of mini-batches and epochs between checkpoints, an interval of 0 skips that kind of
+    // checkpoint. The train command writes checkpoints when given --checkpoint
+    static final boolean WRITE_CHECKPOINTS = false;
+    static final String CHECKPOINT_FILE_PATH = "mnist_checkpoint.bin";
+    static final int CHECKPOINT_BATCH_INTERVAL = 1000;
+    static final int CHECKPOINT_EPOCH_INTERVAL = 1;
+
+    // port the inference server started through the menu listens on, the largest number of requests it runs as one
+    // micro-batch, the longest time in microseconds a request waits for others to join its micro-batch, and the
+    // number of images whose predictions it caches for resubmitted images, 0 turns caching off
+    static final int INFERENCE_SERVER_PORT = 8080;
+    static final int INFERENCE_MAX_BATCH_SIZE = 32;
+    static final long INFERENCE_MAX_DELAY_MICROS = 1000;
+    static final int INFERENCE_CACHE_CAPACITY = 10000;
+
+    // hyperparameter values swept through the menu, every combination is trained on all cores with the optimizer,
+    // cost function and precision above and tested on the validation data, or the testing data if there is none.
+    // The results table is written to SWEEP_RESULTS_FILE_PATH
+    static final double[] SWEEP_LEARN_RATES = {0.5, 1.0, 3.0};
+    static final int[] SWEEP_BATCH_SIZES = {10, 50};
+    static final int[] SWEEP_NUM_MID_LAYERS = {1, 2};
+    static final int[] SWEEP_NUM_MID_LAYER_NODES = {15, 30};
+    static final int[] SWEEP_NUM_EPOCHS = {10};
+    static final String SWEEP_RESULTS_FILE_PATH = "mnist_sweep.csv";
 
     public static void main(String[] args)
     {
+        // run a headless command instead of the menu when given one, see CommandLine
+        if (args.length > 0 && CommandLine.IsCommand(args[0]))
+            System.exit(CommandLine.Run(args));
+
         // store file paths to data files
         String trainingDataFilePath, testingDataFilePath;
 
         // store datasets
-        NetworkInput[] trainingData = new NetworkInput[TRAINING_DATA_SIZE];
-        NetworkInput[] testingData = new NetworkInput[TESTING_DATA_SIZE];
+        NetworkInput[] trainingData = new NetworkInput[0];
+        NetworkInput[] testingData = new NetworkInput[0];
+        NetworkInput[] validationData = null;
 
         // create neural network
-        NeuralNetwork mnistNetwork = new NeuralNetwork(784, 1, 15, 10);
+        NeuralNetwork mnistNetwork = new NeuralNetwork(784, 1, 15, 10, new Random().nextLong(), PRECISION);
+
+        // set optimizer and cost function
+        mnistNetwork.SetOptimizer(Optimizer.Create(OPTIMIZER));
+        mnistNetwork.SetLossFunction(LOSS_FUNCTION);
+
+        // train mini-batches across all available cores
+        mnistNetwork.SetNumThreads(Runtime.getRuntime().availableProcessors());
+
+        // write checkpoints in the background during training
+        if (WRITE_CHECKPOINTS)
+            mnistNetwork.SetCheckpointing(CHECKPOINT_FILE_PATH, CHECKPOINT_BATCH_INTERVAL, CHECKPOINT_EPOCH_INTERVAL);
+
+        // print and publish training metrics
+        if (REPORT_TRAINING_METRICS)
+        {
+            TrainingMonitor trainingMonitor = new TrainingMonitor();
+            trainingMonitor.Register("mnist");
+            mnistNetwork.AddTrainingListener(trainingMonitor);
+            mnistNetwork.AddTrainingListener(metrics -> System.out.println(metrics));
+        }
 
         // get input data file paths from command line arguments
         if (USE_CMD_ARGS)
@@ -47,58 +132,42 @@ public class Main
             testingDataFilePath = "C:\\Users\\super\\Documents\\Code\\MNIST-NeuralNetwork\\mnist_test.csv";
         }
 
-        // create file objects for training and testing data
-        File trainingDataFile = new File(trainingDataFilePath);
-        File testingDataFile = new File(testingDataFilePath);
-
-        // create BufferedReader for reading in training data
-        BufferedReader bufferedReader;
+        // tracks which data file is being loaded for error messages
+        String loadingFilePath = trainingDataFilePath;
 
         // region Read In Data Files
         try
         {
-            // attempt to initialize BufferedReader for training data
-            bufferedReader = new BufferedReader(new FileReader(trainingDataFile));
-
-            // variables for storing line information
-            String line;
-            String[] splitLine;
-
             System.out.println("Loading Training Data...");
-            // read data from training data file
-            for (int i = 0; (line = bufferedReader.readLine()) != null; i++)
-            {
-                // separate each line into input data and correct output
-                splitLine = line.split(",");
-                trainingData[i] = new NetworkInput(Integer.parseInt(splitLine[0]), Arrays.copyOfRange(splitLine, 1, splitLine.length));
-            }
+            trainingData = LoadDataFile(trainingDataFilePath);
             System.out.println("Finished Loading Training Data\n");
 
-            // attempt to initialize BufferedReader for testing data
-            bufferedReader = new BufferedReader(new FileReader(testingDataFile));
+            loadingFilePath = testingDataFilePath;
 
             System.out.println("Loading Testing Data...");
-            // read data from testing data file
-            for (int i = 0; (line = bufferedReader.readLine()) != null; i++)
-            {
-                // separate each line into input data and correct output
-                splitLine = line.split(",");
-                testingData[i] = new NetworkInput(Integer.parseInt(splitLine[0]), Arrays.copyOfRange(splitLine, 1, splitLine.length));
-            }
+            testingData = LoadDataFile(testingDataFilePath);
             System.out.println("Finished Loading testing Data\n");
-
-            // close buffered reader
-            bufferedReader.close();
         }
-        catch (FileNotFoundException e)  // the file path given was invalid
+        catch (FileNotFoundException | NoSuchFileException e)  // the file path given was invalid
         {
-            // FIXME: Always displays trainingDataFilePath even if it was not the file that threw the error
-            System.out.println("The specified file could not be found: \"" + trainingDataFilePath + "\"");
+            System.out.println("The specified file could not be found: \"" + loadingFilePath + "\"");
         }
         catch (IOException e)  // an error occurred during file reading
         {
-            // FIXME: Always says error was in training file reading even if it was not the file that threw the error
-            System.out.println("An error occurred while reading the training data file");
+            System.out.println("An error occurred while reading the data file \"" + loadingFilePath + "\"");
+        }
+
+        // hold out end of training data as validation data, or report accuracy on testing data after each epoch
+        if (VALIDATION_DATA_SIZE > 0 && VALIDATION_DATA_SIZE < trainingData.length)
+        {
+            validationData = Arrays.copyOfRange(trainingData, trainingData.length - VALIDATION_DATA_SIZE, trainingData.length);
+            mnistNetwork.SetValidationData(validationData);
+            mnistNetwork.SetEarlyStopping(EARLY_STOPPING_PATIENCE);
+            trainingData = Arrays.copyOf(trainingData, trainingData.length - VALIDATION_DATA_SIZE);
+        }
+        else if (REPORT_TRAINING_METRICS)
+        {
+            mnistNetwork.SetValidationData(testingData);
         }
         // endregion
 
@@ -115,13 +184,15 @@ public class Main
         int numCorrect;
         // boolean for tracking if network has been trained or loaded yet
         boolean isTrained = false;
+        // inference server serving a snapshot of the network, null while stopped
+        InferenceServer inferenceServer = null;
         // endregion
 
         // region Menu Loop
         while (continueFlag)
         {
             // print menu dialogue
-            System.out.println("Main Menu\n(1) Train Network\n(2) Load Network State From File\n(3) Test Network on Training Data\n(4) Test Network on Testing Data\n(5) Save Network State To File\n(0) Exit\n");
+            System.out.println("Main Menu\n(1) Train Network\n(2) Load Network State From File\n(3) Test Network on Training Data\n(4) Test Network on Testing Data\n(5) Save Network State To File\n(6) Resume Training From Checkpoint\n(7) Start/Stop Inference Server\n(8) Run Hyperparameter Sweep\n(0) Exit\n");
             System.out.print("Please select the number of a menu item: ");
 
             // grab user input from stdin
@@ -133,7 +204,7 @@ public class Main
                     System.out.println("Beginning Training");
 
                     // run network training
-                    mnistNetwork.TrainNetwork(trainingData, 3.0, 10, 30);
+                    mnistNetwork.TrainNetwork(trainingData, LEARN_RATE, 10, 30);
 
                     System.out.println("Network Training Completed\nPress Enter to Continue\n");
                     kbInput.nextLine();
@@ -198,13 +269,74 @@ public class Main
 
                 case "5":
                     // save network state to file
-                    if (mnistNetwork.SaveNetwork())
+                    System.out.print("Enter file path of output file: ");
+                    String outputFile = kbInput.nextLine();
+                    if (mnistNetwork.SaveNetwork(outputFile))
                         System.out.println("Network Save Complete\nPress Enter to Continue\n");
                     else
                         System.out.println("Network Save Failed\nPress Enter to Continue\n");
                     kbInput.nextLine();
                     break;
 
+                case "6":
+                    if (mnistNetwork.LoadCheckpoint(CHECKPOINT_FILE_PATH))
+                    {
+                        System.out.println("Resuming Training");
+
+                        // run rest of network training
+                        mnistNetwork.TrainNetwork(trainingData, LEARN_RATE, 10, 30);
+
+                        System.out.println("Network Training Completed\nPress Enter to Continue\n");
+
+                        // set isTrained to true after completion of network training
+                        isTrained = true;
+                    }
+                    else
+                        System.out.println("Resuming Training Failed\nPress Enter to Continue\n");
+
+                    kbInput.nextLine();
+                    break;
+
+                case "7":
+                    if (inferenceServer != null)  // if server is running, stop it
+                    {
+                        inferenceServer.Stop();
+                        inferenceServer = null;
+                        System.out.println("Inference Server Stopped");
+                    }
+                    else if (isTrained)  // serve a snapshot of the network, later training does not change it
+                    {
+                        inferenceServer = new InferenceServer(mnistNetwork.CreateModel(), INFERENCE_SERVER_PORT, INFERENCE_MAX_BATCH_SIZE, INFERENCE_MAX_DELAY_MICROS, INFERENCE_CACHE_CAPACITY);
+                        if (inferenceServer.Start())
+                            System.out.println("Inference Server Listening on http://localhost:" + inferenceServer.GetPort() + "/predict");
+                        else
+                            inferenceServer = null;
+                    }
+                    else  // if network has not already been trained
+                        System.out.println("Network must be trained or loaded from file to select this option");
+
+                    System.out.println("Press Enter to Continue\n");
+                    kbInput.nextLine();
+                    break;
+
+                case "8":
+                    System.out.println("Beginning Hyperparameter Sweep");
+
+                    // train a fresh network for each combination, the menu network is left unchanged
+                    HyperparameterSweep sweep = new HyperparameterSweep(trainingData, (validationData != null) ? validationData : testingData, Runtime.getRuntime().availableProcessors())
+                            .SetOptimizer(OPTIMIZER).SetLossFunction(LOSS_FUNCTION).SetPrecision(PRECISION).SetSeed(new Random().nextLong());
+                    HyperparameterSweep.Result[] sweepResults = sweep.Run(HyperparameterSweep.CreateGrid(SWEEP_LEARN_RATES, SWEEP_BATCH_SIZES, SWEEP_NUM_MID_LAYERS, SWEEP_NUM_MID_LAYER_NODES, SWEEP_NUM_EPOCHS));
+                    if (sweepResults != null)
+                    {
+                        HyperparameterSweep.PrintResults(sweepResults);
+                        if (HyperparameterSweep.WriteResults(sweepResults, SWEEP_RESULTS_FILE_PATH))
+                            System.out.println("Results written to " + SWEEP_RESULTS_FILE_PATH);
+                    }
+
+                    System.out.println("Hyperparameter Sweep Completed\nPress Enter to Continue\n");
+                    kbInput.nextLine();
+                    break;
+
                 case "0":
                     continueFlag = false;
                     break;
@@ -218,4 +350,49 @@ public class Main
         }
         // endregion
     }
+
+    // loads dataset from the file at the given path, MNIST IDX image files (named like
+    // "train-images-idx3-ubyte") are loaded with the label file next to them, cache files (named like
+    // "mnist_train.csv.cache") are loaded directly, and csv files are loaded from their cache file when
+    // caching is enabled and the cache is up to date
+    static NetworkInput[] LoadDataFile(String filePath) throws IOException
+    {
+        return LoadDataFile(filePath, USE_DATASET_CACHE);
+    }
+
+    // loads dataset as above, writing a cache file next to a csv file for the next run if writeCache is true.
+    // Writing the cache is best-effort, the loaded dataset is returned even if it cannot be written
+    static NetworkInput[] LoadDataFile(String filePath, boolean writeCache) throws IOException
+    {
+        // load IDX image file along with matching label file
+        if (filePath.endsWith("-idx3-ubyte"))
+            return DatasetLoader.LoadIdx(filePath, filePath.replace("images-idx3", "labels-idx1"));
+
+        // load cache file
+        if (filePath.endsWith(".cache"))
+            return DatasetLoader.LoadCache(filePath);
+
+        // load csv file from cache if cache is newer than csv file
+        File dataFile = new File(filePath);
+        File cacheFile = new File(filePath + ".cache");
+        if (USE_DATASET_CACHE && cacheFile.exists() && cacheFile.lastModified() >= dataFile.lastModified())
+            return DatasetLoader.LoadCache(cacheFile.getPath());
+
+        NetworkInput[] dataset = DatasetLoader.LoadCsv(filePath);
+
+        // write cache file for next run
+        if (USE_DATASET_CACHE && writeCache)
+        {
+            try
+            {
+                DatasetLoader.SaveCache(dataset, cacheFile.getPath());
+            }
+            catch (IOException e)
+            {
+                System.out.println("Warning: could not write dataset cache file \"" + cacheFile.getPath() + "\": " + e.getMessage());
+            }
+        }
+
+        return dataset;
+    }
 }
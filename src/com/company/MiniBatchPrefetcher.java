@@ -0,0 +1,162 @@
+package com.company;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// reads one pass over a NetworkInputSource on a background thread, shuffling it through a bounded
+// buffer and assembling mini-batches ahead of the training thread. At most shuffleBufferSize inputs
+// plus maxPrefetchedBatches mini-batches are held at once, however large the source is. Must be closed
+// once training stops taking mini-batches, so the reading thread does not outlive the pass
+public class MiniBatchPrefetcher implements AutoCloseable
+{
+    // empty batch put on the queue to mark the end of the pass
+    private static final NetworkInput[] END_OF_PASS = new NetworkInput[0];
+
+    private final NetworkInputSource source;
+    private final int batchSize, shuffleBufferSize;
+    private final Random random;
+
+    // mini-batches assembled but not yet taken
+    private final BlockingQueue<NetworkInput[]> batches;
+
+    // thread reading the source, and the exception or error that stopped it, if any
+    private final Thread thread;
+    private volatile Throwable readFailure;
+
+    // constructor takes the source to read, the mini-batch size, the number of inputs held for shuffling,
+    // the number of mini-batches to prepare ahead, and the random number generator used for shuffling
+    public MiniBatchPrefetcher(NetworkInputSource source, int batchSize, int shuffleBufferSize, int maxPrefetchedBatches, Random random)
+    {
+        // initialize variables
+        this.source = source;
+        this.batchSize = batchSize;
+        this.shuffleBufferSize = Math.max(1, shuffleBufferSize);
+        this.random = random;
+        batches = new ArrayBlockingQueue<>(maxPrefetchedBatches);
+
+        // create and start reading thread
+        thread = new Thread(this::ReadPass, "MiniBatchPrefetcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // returns the next mini-batch, which may be smaller than batchSize at the end of the pass,
+    // or null once the pass is finished
+    public NetworkInput[] NextBatch() throws IOException
+    {
+        try
+        {
+            NetworkInput[] batch = batches.take();
+            if (batch != END_OF_PASS)
+                return batch;
+
+            // rethrow any failure that ended the pass early, wrapping anything other than a read error
+            Throwable failure = readFailure;
+            if (failure instanceof IOException)
+                throw (IOException) failure;
+            if (failure != null)
+                throw new IOException("Failed to read training data: " + failure, failure);
+
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for training data", e);
+        }
+    }
+
+    // stops reading thread if the pass is not finished, called when training stops taking mini-batches
+    @Override
+    public void close()
+    {
+        thread.interrupt();
+    }
+
+    // reads through the source, emitting inputs chosen at random from the shuffle buffer. The end of the pass
+    // is always marked, however reading stops, so the training thread never waits on a thread that has died
+    private void ReadPass()
+    {
+        try
+        {
+            FillBatches();
+        }
+        catch (InterruptedException e)
+        {
+            // training has stopped, no one is waiting for the end marker
+            return;
+        }
+        catch (Throwable e)
+        {
+            readFailure = e;
+        }
+
+        try
+        {
+            batches.put(END_OF_PASS);
+        }
+        catch (InterruptedException e)
+        {
+            // training has stopped, no one is waiting for the end marker
+        }
+    }
+
+    // reads the whole source, putting each mini-batch on the queue as it fills
+    private void FillBatches() throws IOException, InterruptedException
+    {
+        NetworkInput[] shuffleBuffer = new NetworkInput[shuffleBufferSize];
+        int numBuffered = 0;
+        NetworkInput[] batch = new NetworkInput[batchSize];
+        int batchLength = 0;
+
+        try (NetworkInputReader reader = source.Open())
+        {
+            NetworkInput input;
+            while ((input = reader.Next()) != null)
+            {
+                // fill shuffle buffer before emitting any inputs
+                if (numBuffered < shuffleBufferSize)
+                {
+                    shuffleBuffer[numBuffered++] = input;
+                    continue;
+                }
+
+                // emit random input from buffer and put new input in its place
+                int index = random.nextInt(shuffleBufferSize);
+                batch[batchLength++] = shuffleBuffer[index];
+                shuffleBuffer[index] = input;
+
+                if (batchLength == batchSize)
+                {
+                    batches.put(batch);
+                    batch = new NetworkInput[batchSize];
+                    batchLength = 0;
+                }
+            }
+
+            // emit remaining buffered inputs in random order
+            for (int i = numBuffered; i > 0; i--)
+            {
+                int index = random.nextInt(i);
+                batch[batchLength++] = shuffleBuffer[index];
+                shuffleBuffer[index] = shuffleBuffer[i - 1];
+
+                if (batchLength == batchSize)
+                {
+                    batches.put(batch);
+                    batch = new NetworkInput[batchSize];
+                    batchLength = 0;
+                }
+            }
+
+            // emit final partial batch
+            if (batchLength > 0)
+            {
+                NetworkInput[] finalBatch = new NetworkInput[batchLength];
+                System.arraycopy(batch, 0, finalBatch, 0, batchLength);
+                batches.put(finalBatch);
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.company;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+// self-contained benchmark suite for the network, run with
+//     java [--add-modules jdk.incubator.vector] com.company.NetworkBenchmark [name filter...]
+// Every benchmark runs on synthetic data so no dataset files are needed. Each one is repeated for
+// WARMUP_ITERATIONS untimed iterations, then MEASUREMENT_ITERATIONS timed iterations, each iteration
+// lasting about ITERATION_NANOS. The mean and standard deviation of the time per operation are
+// reported along with throughput and heap bytes allocated per operation across all threads.
+// Accuracy comparisons train on the synthetic data unless MNIST files are given with
+//     -Dmnist.train=<training file> -Dmnist.test=<testing file>
+// The inference and training hot paths are also benchmarked with JMH, which runs each benchmark in forked JVMs
+// and consumes results with Blackholes, by InferenceBenchmark and TrainingBenchmark in jmh/com/company, see pom.xml
+public class NetworkBenchmark
+{
+    // topologies benchmarked, as {numInputs, numMidLayers, numMidLayerNodes, numOutputLayerNodes}
+    private static final int[][] TOPOLOGIES = {{784, 1, 15, 10}, {784, 1, 100, 10}, {784, 2, 300, 10}};
+
+    // mini-batch sizes benchmarked
+    private static final int[] BATCH_SIZES = {10, 100, 1000};
+
+    // number of synthetic samples in datasets
+    private static final int DATASET_SIZE = 10000;
+
+    // training settings used by accuracy comparisons, the topology trained is the first of TOPOLOGIES
+    private static final int ACCURACY_EPOCHS = 3, ACCURACY_BATCH_SIZE = 10;
+    private static final double ACCURACY_LEARN_RATE = 3.0;
+
+    // optimizers and cost functions compared by the wall-clock training time they need to reach TARGET_ACCURACY percent
+    // on the testing data, with the learning rate used for each, training for at most MAX_OPTIMIZER_EPOCHS epochs
+    private static final String[] OPTIMIZERS = {"sgd", "momentum", "nesterov", "adam", "sgd", "adam"};
+    private static final LossFunction[] OPTIMIZER_LOSS_FUNCTIONS = {LossFunction.QUADRATIC, LossFunction.QUADRATIC, LossFunction.QUADRATIC,
+            LossFunction.QUADRATIC, LossFunction.CROSS_ENTROPY, LossFunction.CROSS_ENTROPY};
+    private static final double[] OPTIMIZER_LEARN_RATES = {3.0, 0.1, 0.1, 0.003, 2.0, 0.003};
+    private static final double TARGET_ACCURACY = 95.0;
+    private static final int MAX_OPTIMIZER_EPOCHS = 30;
+
+    // widths of the ReLU mid layers of the network compared with the optimizers above, trained with softmax
+    // outputs and gradient descent at the given learning rate
+    private static final int[] RELU_MID_LAYER_SIZES = {128, 32};
+    private static final double RELU_LEARN_RATE = 0.1;
+
+    // sigmoid functions benchmarked
+    private static final String[] SIGMOID_FUNCTIONS = {"exact", "exp", "table"};
+
+    // number of inputs used to calibrate quantized models
+    private static final int CALIBRATION_SIZE = 1000;
+
+    // iteration counts and length of each iteration
+    private static final int WARMUP_ITERATIONS = 5, MEASUREMENT_ITERATIONS = 10;
+    private static final long ITERATION_NANOS = 200_000_000L;
+
+    // results of benchmark operations are added here so the JIT cannot remove the work
+    static volatile long sink;
+
+    // an operation being benchmarked, returns a value to be added to the sink
+    interface BenchmarkOperation
+    {
+        long Run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        // name filters, a benchmark runs if its name contains any of them
+        String[] filters = args;
+
+        System.out.println("Kernel backend: " + Kernels.Get().GetName() + ", threads available: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-44s %14s %12s %16s %12s%n", "Benchmark", "ns/op", "+/-", "samples/s", "B/op");
+
+        NetworkInput[] dataset = CreateDataset(DATASET_SIZE, 784, 1);
+        File tempDir = Files.createTempDirectory("mnist-benchmark").toFile();
+
+        for (int[] topology : TOPOLOGIES)
+        {
+            for (Precision precision : Precision.values())
+            {
+                String topologyName = topology[0] + "-" + topology[2] + "x" + topology[1] + "-" + topology[3] + (precision == Precision.SINGLE ? " f32" : "");
+                NeuralNetwork network = new NeuralNetwork(topology[0], topology[1], topology[2], topology[3], 1, precision);
+
+                // single sample forward pass latency
+                double[] input = new double[topology[0]];
+                dataset[0].ReadInputValues(input);
+                Run(filters, "RunNetwork " + topologyName, 1, () -> network.RunNetwork(input));
+
+                // batched evaluation throughput
+                Run(filters, "TestNetwork " + topologyName, dataset.length, () -> network.TestNetwork(dataset).length);
+
+                // int8 quantized inference, which does not depend on the precision of the network it was made from
+                if (precision == Precision.DOUBLE)
+                {
+                    QuantizedModel quantizedModel = network.CreateQuantizedModel(Arrays.copyOf(dataset, CALIBRATION_SIZE));
+                    Run(filters, "RunQuantized " + topologyName, 1, () -> quantizedModel.Predict(input));
+                    Run(filters, "TestQuantized " + topologyName, dataset.length, () -> quantizedModel.TestModel(dataset).length);
+                }
+
+                // one back propagation of a case already run forward
+                NetworkWorkspace workspace = network.CreateWorkspace();
+                if (precision == Precision.DOUBLE)
+                {
+                    dataset[0].ReadInputValues(workspace.inputs);
+                    network.ForwardPass(workspace.inputs, workspace);
+                }
+                else
+                {
+                    dataset[0].ReadInputValues(workspace.floatInputs, 0);
+                    network.ForwardPass(workspace.floatInputs, workspace);
+                }
+                Run(filters, "BackPropagate " + topologyName, 1, () ->
+                {
+                    if (precision == Precision.DOUBLE)
+                        network.BackPropagate(workspace.inputs, dataset[0].correctOutputVector, workspace);
+                    else
+                        network.BackPropagate(workspace.floatInputs, dataset[0].correctOutputVector, workspace);
+                    return 0;
+                });
+
+                // one mini-batch training step, on the calling thread and on all cores
+                int numCores = Runtime.getRuntime().availableProcessors();
+                for (int threads : (numCores > 1) ? new int[]{1, numCores} : new int[]{1})
+                {
+                    network.SetNumThreads(threads);
+                    for (int batchSize : BATCH_SIZES)
+                    {
+                        NetworkInput[] miniBatch = new NetworkInput[batchSize];
+                        System.arraycopy(dataset, 0, miniBatch, 0, batchSize);
+                        Run(filters, "RunMiniBatch " + topologyName + " b=" + batchSize + " t=" + threads, batchSize, () ->
+                        {
+                            network.RunMiniBatch(miniBatch, 0.001);
+                            return 0;
+                        });
+                    }
+                }
+                network.SetNumThreads(1);
+
+                // saving and loading network files
+                String networkFilePath = new File(tempDir, topologyName + ".net").getPath();
+                network.SaveNetwork(networkFilePath);
+                Run(filters, "SaveNetwork " + topologyName, 1, () -> network.SaveNetwork(networkFilePath) ? 1 : 0);
+                Run(filters, "LoadNetwork " + topologyName, 1, () -> network.LoadNetwork(networkFilePath) ? 1 : 0);
+            }
+        }
+
+        // dataset loading, as done by Main
+        String csvFilePath = new File(tempDir, "dataset.csv").getPath();
+        String cacheFilePath = csvFilePath + ".cache";
+        DatasetLoader.SaveCsv(dataset, csvFilePath);
+        DatasetLoader.SaveCache(dataset, cacheFilePath);
+        Run(filters, "LoadCsv", dataset.length, () -> DatasetLoader.LoadCsv(csvFilePath).length);
+        Run(filters, "LoadCache", dataset.length, () -> DatasetLoader.LoadCache(cacheFilePath).length);
+
+        // each sigmoid function alone, and in forward passes of a small and a medium network
+        String defaultSigmoid = SigmoidFunction.Get().GetName();
+        double[] weightedSums = new double[DATASET_SIZE], sigmoidValues = new double[DATASET_SIZE];
+        Random sumRandom = new Random(1);
+        for (int i = 0; i < weightedSums.length; i++)
+            weightedSums[i] = sumRandom.nextGaussian() * 4;
+        NeuralNetwork smallNetwork = new NeuralNetwork(784, 1, 15, 10, 1), mediumNetwork = new NeuralNetwork(784, 1, 100, 10, 1);
+        double[] sigmoidInput = new double[784];
+        dataset[0].ReadInputValues(sigmoidInput);
+
+        for (String sigmoid : SIGMOID_FUNCTIONS)
+        {
+            SigmoidFunction.Select(sigmoid);
+            Run(filters, "Sigmoid " + sigmoid, weightedSums.length, () ->
+            {
+                System.arraycopy(weightedSums, 0, sigmoidValues, 0, weightedSums.length);
+                SigmoidFunction.Get().Apply(sigmoidValues, 0, sigmoidValues.length);
+                return (long) sigmoidValues[0];
+            });
+            Run(filters, "RunNetwork 784-15x1-10 sigmoid=" + sigmoid, 1, () -> smallNetwork.RunNetwork(sigmoidInput));
+            Run(filters, "RunNetwork 784-100x1-10 sigmoid=" + sigmoid, 1, () -> mediumNetwork.RunNetwork(sigmoidInput));
+            Run(filters, "TestNetwork 784-15x1-10 sigmoid=" + sigmoid, dataset.length, () -> smallNetwork.TestNetwork(dataset).length);
+        }
+        SigmoidFunction.Select(defaultSigmoid);
+
+        // accuracy of each precision trained from the same seed, of the int8 quantized double precision
+        // network, and of double precision trained with the sigmoid lookup table, compared against double precision
+        if (Matches(filters, "Accuracy"))
+        {
+            NetworkInput[] trainingData = LoadAccuracyDataset("mnist.train", dataset);
+            NetworkInput[] testingData = LoadAccuracyDataset("mnist.test", CreateDataset(DATASET_SIZE, 784, 2));
+            System.out.printf("%n%-44s %14s %12s %16s%n", "Accuracy", "correct", "accuracy", "delta");
+
+            NeuralNetwork doubleNetwork = TrainAccuracyNetwork(trainingData, Precision.DOUBLE);
+            double baseline = ReportAccuracy("Accuracy DOUBLE", doubleNetwork.TestNetwork(testingData), 0);
+            ReportAccuracy("Accuracy SINGLE", TrainAccuracyNetwork(trainingData, Precision.SINGLE).TestNetwork(testingData), baseline);
+
+            QuantizedModel quantizedModel = doubleNetwork.CreateQuantizedModel(Arrays.copyOf(trainingData, Math.min(CALIBRATION_SIZE, trainingData.length)));
+            ReportAccuracy("Accuracy QUANTIZED", quantizedModel.TestModel(testingData), baseline);
+
+            SigmoidFunction.Select("table");
+            ReportAccuracy("Accuracy DOUBLE sigmoid=table", TrainAccuracyNetwork(trainingData, Precision.DOUBLE).TestNetwork(testingData), baseline);
+            SigmoidFunction.Select(defaultSigmoid);
+        }
+
+        // training time each optimizer needs to reach the target accuracy, testing after every epoch
+        if (Matches(filters, "TimeToAccuracy"))
+        {
+            NetworkInput[] trainingData = LoadAccuracyDataset("mnist.train", dataset);
+            NetworkInput[] testingData = LoadAccuracyDataset("mnist.test", CreateDataset(DATASET_SIZE, 784, 2));
+            System.out.printf("%n%-52s %14s %12s %16s%n", "TimeToAccuracy " + TARGET_ACCURACY + "%", "epochs", "seconds", "accuracy");
+
+            // warm up training code of every optimizer so the first one measured is not slowed by compilation
+            for (String optimizerName : OPTIMIZERS)
+            {
+                NeuralNetwork network = new NeuralNetwork(784, 1, 15, 10, 1);
+                network.SetOptimizer(Optimizer.Create(optimizerName));
+                network.TrainNetwork(dataset, 0.001, ACCURACY_BATCH_SIZE, 1);
+            }
+
+            for (int i = 0; i < OPTIMIZERS.length; i++)
+            {
+                int[] topology = TOPOLOGIES[0];
+                NeuralNetwork network = new NeuralNetwork(topology[0], topology[1], topology[2], topology[3], 1, Precision.DOUBLE);
+                network.SetOptimizer(Optimizer.Create(OPTIMIZERS[i]));
+                network.SetLossFunction(OPTIMIZER_LOSS_FUNCTIONS[i]);
+
+                String name = OPTIMIZERS[i] + ((OPTIMIZER_LOSS_FUNCTIONS[i] == LossFunction.CROSS_ENTROPY) ? " cross-entropy" : "");
+                ReportTimeToAccuracy(name, network, OPTIMIZER_LEARN_RATES[i], trainingData, testingData);
+            }
+
+            // wider then narrower ReLU network
+            NeuralNetwork.Builder builder = new NeuralNetwork.Builder(784).SetSeed(1);
+            for (int numNodes : RELU_MID_LAYER_SIZES)
+                builder.AddLayer(numNodes, Activation.RELU);
+            NeuralNetwork reluNetwork = builder.AddLayer(10, Activation.SOFTMAX).Build();
+            ReportTimeToAccuracy("relu " + Arrays.toString(RELU_MID_LAYER_SIZES) + " cross-entropy", reluNetwork, RELU_LEARN_RATE, trainingData, testingData);
+        }
+
+        // remove temporary files
+        for (File file : tempDir.listFiles())
+            file.delete();
+        tempDir.delete();
+    }
+
+    // returns true if the benchmark name contains any of the filters, or there are no filters
+    private static boolean Matches(String[] filters, String name)
+    {
+        boolean matches = filters.length == 0;
+        for (String filter : filters)
+            matches |= name.contains(filter);
+
+        return matches;
+    }
+
+    // runs benchmark if its name matches the filters, samplesPerOp is the number of samples
+    // processed by each operation and is used to report throughput
+    private static void Run(String[] filters, String name, int samplesPerOp, BenchmarkOperation operation) throws IOException
+    {
+        // check name against filters
+        if (!Matches(filters, name))
+            return;
+
+        // run warmup iterations
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            RunIteration(operation);
+
+        // run measured iterations, recording time per operation of each
+        double[] nanosPerOp = new double[MEASUREMENT_ITERATIONS];
+        long totalOps = 0;
+        long startBytes = TrainingMetrics.ReadTotalAllocatedBytes();
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++)
+        {
+            long[] result = RunIteration(operation);
+            nanosPerOp[i] = (double) result[1] / result[0];
+            totalOps += result[0];
+        }
+        long allocatedBytes = TrainingMetrics.ReadTotalAllocatedBytes() - startBytes;
+
+        // calculate mean and standard deviation
+        double mean = 0, variance = 0;
+        for (double value : nanosPerOp)
+            mean += value / nanosPerOp.length;
+        for (double value : nanosPerOp)
+            variance += (value - mean) * (value - mean) / nanosPerOp.length;
+
+        System.out.printf("%-44s %14.1f %12.1f %16.0f %12.1f%n", name, mean, Math.sqrt(variance), samplesPerOp * 1e9 / mean, (double) allocatedBytes / totalOps);
+    }
+
+    // runs operation repeatedly for about ITERATION_NANOS, returns {number of operations, elapsed nanoseconds}
+    private static long[] RunIteration(BenchmarkOperation operation) throws IOException
+    {
+        long ops = 0, result = 0;
+        long start = System.nanoTime(), elapsed;
+        do
+        {
+            result += operation.Run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_NANOS);
+
+        sink += result;
+        return new long[]{ops, elapsed};
+    }
+
+    // loads the dataset file named by the given system property, or returns the synthetic dataset if it is not set
+    private static NetworkInput[] LoadAccuracyDataset(String property, NetworkInput[] synthetic) throws IOException
+    {
+        String filePath = System.getProperty(property);
+        return (filePath != null) ? Main.LoadDataFile(filePath) : synthetic;
+    }
+
+    // trains a network with the first topology on the dataset from a fixed seed, so every call with the
+    // same precision gives the same network and calls with different precisions start from the same weights
+    static NeuralNetwork TrainAccuracyNetwork(NetworkInput[] dataset, Precision precision)
+    {
+        int[] topology = TOPOLOGIES[0];
+        NeuralNetwork network = new NeuralNetwork(topology[0], topology[1], topology[2], topology[3], 1, precision);
+
+        network.TrainNetwork(dataset, ACCURACY_LEARN_RATE, ACCURACY_BATCH_SIZE, ACCURACY_EPOCHS);
+        return network;
+    }
+
+    // trains the network one epoch at a time until it reaches the target accuracy on the testing data, then prints
+    // the number of epochs and the training time they took, not counting testing. Prints a dash for the epochs if
+    // the target was not reached within the epoch limit
+    private static void ReportTimeToAccuracy(String name, NeuralNetwork network, double learnRate, NetworkInput[] trainingData, NetworkInput[] testingData)
+    {
+        long trainingNanos = 0;
+        double accuracy = 0;
+        int epoch = 0;
+        while (epoch < MAX_OPTIMIZER_EPOCHS && accuracy < TARGET_ACCURACY)
+        {
+            long start = System.nanoTime();
+            network.TrainNetwork(trainingData, learnRate, ACCURACY_BATCH_SIZE, 1);
+            trainingNanos += System.nanoTime() - start;
+            epoch++;
+
+            int numCorrect = 0;
+            for (boolean result : network.TestNetwork(testingData))
+                if (result)
+                    numCorrect++;
+            accuracy = 100.0 * numCorrect / testingData.length;
+        }
+
+        System.out.printf("%-52s %14s %12.2f %15.2f%%%n", "TimeToAccuracy " + name + " lr=" + learnRate, (accuracy >= TARGET_ACCURACY) ? Integer.toString(epoch) : "-", trainingNanos / 1e9, accuracy);
+    }
+
+    // prints the accuracy of a set of test results and its difference from the baseline accuracy, returns the accuracy
+    static double ReportAccuracy(String name, boolean[] results, double baseline)
+    {
+        int numCorrect = 0;
+        for (boolean result : results)
+            if (result)
+                numCorrect++;
+
+        double accuracy = 100.0 * numCorrect / results.length;
+        System.out.printf("%-44s %14d %11.2f%% %+15.2f%%%n", name, numCorrect, accuracy, (baseline == 0) ? 0 : accuracy - baseline);
+        return accuracy;
+    }
+
+    // creates a dataset of random digit-like inputs, with a bright stripe of pixels whose
+    // position depends on the correct output so networks have something to learn
+    static NetworkInput[] CreateDataset(int size, int numPixels, long seed)
+    {
+        Random random = new Random(seed);
+        ByteBuffer pixels = ByteBuffer.allocate(size * numPixels);
+        NetworkInput[] dataset = new NetworkInput[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            int correctOutput = random.nextInt(10);
+            for (int j = 0; j < numPixels; j++)
+            {
+                int value = (j % 10 == correctOutput) ? 160 + random.nextInt(96) : (random.nextInt(4) == 0 ? random.nextInt(64) : 0);
+                pixels.put(i * numPixels + j, (byte) value);
+            }
+            dataset[i] = new NetworkInput(correctOutput, pixels, i * numPixels, numPixels);
+        }
+
+        return dataset;
+    }
+}
@@ -1,32 +1,94 @@
 package com.company;
+import java.nio.ByteBuffer;
 
 public class NetworkInput
 {
+    // one-hot output vectors for each digit, shared by every input with that correct output
+    private static final int[][] OUTPUT_VECTORS = new int[10][10];
+
+    // input value of each possible byte value, normalized between 0.0-1.0 unless debugging
+    private static final double[] INPUT_VALUES = new double[256];
+    private static final float[] FLOAT_INPUT_VALUES = new float[256];
+
+    static
+    {
+        for (int i = 0; i < OUTPUT_VECTORS.length; i++)
+            OUTPUT_VECTORS[i][i] = 1;
+
+        for (int i = 0; i < INPUT_VALUES.length; i++)
+        {
+            INPUT_VALUES[i] = Main.DEBUG ? i : i / 255.0;
+            FLOAT_INPUT_VALUES[i] = (float) INPUT_VALUES[i];
+        }
+    }
+
     public int correctOutput;
     public int[] correctOutputVector;
-    public double[] inputValues;
 
-    public NetworkInput(int correctOutput, String[] inputValues)
+    // raw 0-255 pixel values of this input, stored as unsigned bytes starting at pixelOffset,
+    // the buffer is usually shared by (or memory-mapped for) the whole dataset
+    private final ByteBuffer pixels;
+    private final int pixelOffset;
+    private final int numPixels;
+
+    // constructor for an input whose pixel values are stored as bytes in the given buffer
+    public NetworkInput(int correctOutput, ByteBuffer pixels, int pixelOffset, int numPixels)
     {
         // initialize variables
         this.correctOutput = correctOutput;
-        this.correctOutputVector = new int[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-        this.inputValues = new double[inputValues.length];
+        this.correctOutputVector = OUTPUT_VECTORS[correctOutput];
+        this.pixels = pixels;
+        this.pixelOffset = pixelOffset;
+        this.numPixels = numPixels;
+    }
 
-        // set correct output index to one in vector
-        correctOutputVector[correctOutput] = 1;
+    // alternate constructor that takes the pixel values as strings, as read from a csv file
+    public NetworkInput(int correctOutput, String[] inputValues)
+    {
+        this(correctOutput, ByteBuffer.allocate(inputValues.length), 0, inputValues.length);
 
-        if (!Main.DEBUG)
-        {
-            // convert list of input values from strings to normalized doubles
-            for (int i = 0; i < inputValues.length; i++)
-                this.inputValues[i] = Double.parseDouble(inputValues[i]) / 255.0;
-        }
-        else
-        {
-            // convert list of input values from strings to normalized doubles
-            for (int i = 0; i < inputValues.length; i++)
-                this.inputValues[i] = Double.parseDouble(inputValues[i]);
-        }
+        // convert list of input values from strings to bytes
+        for (int i = 0; i < inputValues.length; i++)
+            pixels.put(i, (byte) Integer.parseInt(inputValues[i]));
+    }
+
+    // writes the input values into the given array, normalized between 0.0-1.0
+    // unless debugging, in which case the raw pixel values are written
+    public void ReadInputValues(double[] inputValues)
+    {
+        ReadInputValues(inputValues, 0);
+    }
+
+    // writes the input values into the given array starting at offset, used for filling
+    // one row of a flat batch of inputs
+    public void ReadInputValues(double[] inputValues, int offset)
+    {
+        for (int i = 0; i < numPixels; i++)
+            inputValues[offset + i] = INPUT_VALUES[pixels.get(pixelOffset + i) & 0xFF];
+    }
+
+    // single precision version of ReadInputValues
+    public void ReadInputValues(float[] inputValues, int offset)
+    {
+        for (int i = 0; i < numPixels; i++)
+            inputValues[offset + i] = FLOAT_INPUT_VALUES[pixels.get(pixelOffset + i) & 0xFF];
+    }
+
+    // returns the input value a raw 0-255 pixel value is read as
+    public static double GetInputValue(int pixel)
+    {
+        return INPUT_VALUES[pixel];
+    }
+
+    // returns the raw 0-255 value of a pixel
+    public int GetPixel(int index)
+    {
+        return pixels.get(pixelOffset + index) & 0xFF;
+    }
+
+    // getter for number of input values
+    public int GetNumInputs()
+    {
+        return numPixels;
     }
 }
@@ -0,0 +1,10 @@
+package com.company;
+import java.io.Closeable;
+import java.io.IOException;
+
+// reads inputs one at a time from a NetworkInputSource
+public interface NetworkInputReader extends Closeable
+{
+    // returns the next input, or null once the end of the source has been reached
+    NetworkInput Next() throws IOException;
+}
@@ -0,0 +1,30 @@
+package com.company;
+import java.io.IOException;
+
+// source of network inputs that can be read through from the start any number of times,
+// used to stream training data that does not need to be held in memory all at once
+public interface NetworkInputSource
+{
+    // opens a reader positioned at the first input of the source
+    NetworkInputReader Open() throws IOException;
+
+    // returns a source reading through the given array of inputs
+    static NetworkInputSource Of(NetworkInput[] inputs)
+    {
+        return () -> new NetworkInputReader()
+        {
+            private int next = 0;
+
+            @Override
+            public NetworkInput Next()
+            {
+                return (next < inputs.length) ? inputs[next++] : null;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+}
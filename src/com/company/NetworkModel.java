@@ -0,0 +1,363 @@
+package com.company;
+
+// read-only view of a network's weights used for inference. A model never writes to its layers and
+// keeps all activations in per-call or caller-owned scratch buffers, so any number of threads can run
+// predictions against one model at once. Models created with NeuralNetwork.CreateModel hold their own
+// copy of the weights and are immutable
+public final class NetworkModel
+{
+    // maximum number of cases run through each batched forward pass
+    static final int BATCH_SIZE = 256;
+
+    // number of values in the input vector
+    private final int numInputs;
+
+    // layer array, holds every mid layer followed by the output layer
+    private final Layer[] layers;
+
+    // constructor takes the layers to run, the layers must not be changed while the model is in use
+    // unless the model is only used by the network that owns them
+    NetworkModel(Layer[] layers)
+    {
+        this.numInputs = layers[0].GetNumInputs();
+        this.layers = layers;
+    }
+
+    // returns a workspace for running batches of up to capacity cases through this model, a thread
+    // can keep one workspace and reuse it for every call to avoid allocating scratch buffers
+    public BatchWorkspace CreateWorkspace(int capacity)
+    {
+        return new BatchWorkspace(layers, capacity);
+    }
+
+    // run model on given input, returning the index of the max output activation
+    // inputs must be normalized between 0.0-1.0
+    public int Predict(double[] input)
+    {
+        return Predict(input, null);
+    }
+
+    // run model on given input, returning the index of the max output activation, if outputActivations
+    // is not null the output layer activations are copied into it
+    // inputs must be normalized between 0.0-1.0
+    public int Predict(double[] input, double[] outputActivations)
+    {
+        if (GetPrecision() == Precision.SINGLE)
+            return PredictSingle(input, outputActivations);
+
+        // calculate activation of each layer into per-call scratch buffers
+        double[] layerInput = input;
+        for (Layer layer : layers)
+        {
+            double[] activations = new double[layer.GetNumNodes()];
+            layer.CalculateActivations(layerInput, activations);
+            layerInput = activations;
+        }
+
+        if (outputActivations != null)
+            System.arraycopy(layerInput, 0, outputActivations, 0, layerInput.length);
+
+        return MaxIndex(layerInput, 0, layerInput.length);
+    }
+
+    // run model on given input, returning the probability of each output. Softmax outputs are already probabilities,
+    // sigmoid outputs are independent values between 0.0-1.0 and are divided by their sum to give a distribution,
+    // and outputs of other activations, which can be negative, go through softmax instead. Both rank the outputs
+    // the same way but are only a rough estimate of the probabilities
+    // inputs must be normalized between 0.0-1.0
+    public double[] PredictProbabilities(double[] input)
+    {
+        double[] probabilities = new double[GetNumOutputs()];
+        Predict(input, probabilities);
+        ToProbabilities(probabilities);
+        return probabilities;
+    }
+
+    // turns output activations into probabilities in place, as described by PredictProbabilities
+    private void ToProbabilities(double[] outputs)
+    {
+        Activation outputActivation = layers[layers.length - 1].GetActivation();
+        if (outputActivation == Activation.SOFTMAX)
+            return;
+        if (outputActivation != Activation.SIGMOID)
+        {
+            Activation.SOFTMAX.Apply(outputs, outputs.length, 1);
+            return;
+        }
+
+        double sum = 0;
+        for (double output : outputs)
+            sum += output;
+        for (int i = 0; i < outputs.length; i++)
+            outputs[i] /= sum;
+    }
+
+    // single precision version of Predict, rounds the input to floats and widens the output activations
+    private int PredictSingle(double[] input, double[] outputActivations)
+    {
+        float[] layerInput = new float[numInputs];
+        for (int i = 0; i < numInputs; i++)
+            layerInput[i] = (float) input[i];
+
+        for (Layer layer : layers)
+        {
+            float[] activations = new float[layer.GetNumNodes()];
+            layer.CalculateActivations(layerInput, activations);
+            layerInput = activations;
+        }
+
+        if (outputActivations != null)
+            for (int i = 0; i < layerInput.length; i++)
+                outputActivations[i] = layerInput[i];
+
+        return MaxIndex(layerInput, 0, layerInput.length);
+    }
+
+    // run model on a batch of inputs, returning the index of the max output activation for each input
+    // inputs must be normalized between 0.0-1.0
+    public int[] Predict(double[][] inputs)
+    {
+        return Predict(inputs, null, CreateWorkspace(Math.min(BATCH_SIZE, Math.max(1, inputs.length))));
+    }
+
+    // run model on a batch of inputs using the given workspace, returning the index of the max output activation
+    // for each input, if outputActivations is not null the output layer activations of input i are copied into
+    // outputActivations[i]
+    // inputs must be normalized between 0.0-1.0
+    public int[] Predict(double[][] inputs, double[][] outputActivations, BatchWorkspace workspace)
+    {
+        int[] maxActivations = new int[inputs.length];
+        int numOutputs = GetNumOutputs();
+
+        for (int start = 0; start < inputs.length; start += workspace.capacity)
+        {
+            // copy inputs into flat batch
+            int numCases = Math.min(workspace.capacity, inputs.length - start);
+            for (int i = 0; i < numCases; i++)
+            {
+                if (workspace.precision == Precision.DOUBLE)
+                    System.arraycopy(inputs[start + i], 0, workspace.inputs, i * numInputs, numInputs);
+                else
+                    for (int j = 0; j < numInputs; j++)
+                        workspace.floatInputs[i * numInputs + j] = (float) inputs[start + i][j];
+            }
+
+            ForwardPass(workspace, numCases);
+
+            // get max activation of each case, copying output activations if requested
+            for (int i = 0; i < numCases; i++)
+            {
+                maxActivations[start + i] = OutputMaxIndex(workspace, i);
+                if (outputActivations == null)
+                    continue;
+
+                if (workspace.precision == Precision.DOUBLE)
+                    System.arraycopy(workspace.activations[layers.length - 1], i * numOutputs, outputActivations[start + i], 0, numOutputs);
+                else
+                    for (int j = 0; j < numOutputs; j++)
+                        outputActivations[start + i][j] = workspace.floatActivations[layers.length - 1][i * numOutputs + j];
+            }
+        }
+
+        return maxActivations;
+    }
+
+    // creates an int8 quantized copy of this model, calibrating the scale of the values fed into each layer
+    // from the largest magnitude seen while running the calibration data through the model. The calibration data
+    // should be a few hundred to a few thousand cases representative of the inputs the quantized model will see
+    public QuantizedModel Quantize(NetworkInput[] calibrationData)
+    {
+        BatchWorkspace workspace = CreateWorkspace(BATCH_SIZE);
+        double[] maxInputs = new double[layers.length];
+
+        // run calibration data through the model in batches, tracking largest input magnitude of every layer
+        for (int start = 0; start < calibrationData.length; start += workspace.capacity)
+        {
+            int numCases = Math.min(workspace.capacity, calibrationData.length - start);
+            ReadInputs(calibrationData, start, numCases, workspace);
+            ForwardPass(workspace, numCases);
+
+            for (int i = 0; i < layers.length; i++)
+                maxInputs[i] = Math.max(maxInputs[i], MaxInput(workspace, i, numCases));
+        }
+
+        return new QuantizedModel(layers, maxInputs);
+    }
+
+    // runs through test data set in batches and gives back array of correctly answered inputs
+    public boolean[] TestModel(NetworkInput[] testingData)
+    {
+        return TestModel(testingData, CreateWorkspace(BATCH_SIZE));
+    }
+
+    // runs through test data set in batches using the given workspace and gives back array of correctly answered inputs
+    public boolean[] TestModel(NetworkInput[] testingData, BatchWorkspace workspace)
+    {
+        // track which cases were answered correctly and incorrectly
+        boolean[] correctlyAnsweredInputs = new boolean[testingData.length];
+
+        // iterate through batches of testing data, marking correct and incorrect cases
+        for (int start = 0; start < testingData.length; start += workspace.capacity)
+        {
+            // fill batch with input values
+            int numCases = Math.min(workspace.capacity, testingData.length - start);
+            ReadInputs(testingData, start, numCases, workspace);
+
+            ForwardPass(workspace, numCases);
+
+            for (int i = 0; i < numCases; i++)
+                correctlyAnsweredInputs[start + i] = (testingData[start + i].correctOutput == OutputMaxIndex(workspace, i));
+        }
+
+        return correctlyAnsweredInputs;
+    }
+
+    // runs data[from, to) through the model in batches using the given workspace and returns the number answered correctly
+    int CountCorrect(NetworkInput[] data, int from, int to, BatchWorkspace workspace)
+    {
+        int numCorrect = 0;
+        for (int start = from; start < to; start += workspace.capacity)
+        {
+            int numCases = Math.min(workspace.capacity, to - start);
+            ReadInputs(data, start, numCases, workspace);
+            ForwardPass(workspace, numCases);
+
+            for (int i = 0; i < numCases; i++)
+                if (data[start + i].correctOutput == OutputMaxIndex(workspace, i))
+                    numCorrect++;
+        }
+
+        return numCorrect;
+    }
+
+    // runs data[from, to) through the model in batches using the given workspace, storing the index of the max output
+    // activation of data[i] in predictions[i], and if probabilities is not null the probability of each output of
+    // data[i], as given by PredictProbabilities, in probabilities[i]
+    void Predict(NetworkInput[] data, int from, int to, int[] predictions, double[][] probabilities, BatchWorkspace workspace)
+    {
+        int numOutputs = GetNumOutputs();
+        for (int start = from; start < to; start += workspace.capacity)
+        {
+            int numCases = Math.min(workspace.capacity, to - start);
+            ReadInputs(data, start, numCases, workspace);
+            ForwardPass(workspace, numCases);
+
+            for (int i = 0; i < numCases; i++)
+            {
+                predictions[start + i] = OutputMaxIndex(workspace, i);
+                if (probabilities == null)
+                    continue;
+
+                double[] outputs = probabilities[start + i];
+                for (int j = 0; j < numOutputs; j++)
+                    outputs[j] = (workspace.precision == Precision.DOUBLE) ? workspace.activations[layers.length - 1][i * numOutputs + j]
+                            : workspace.floatActivations[layers.length - 1][i * numOutputs + j];
+                ToProbabilities(outputs);
+            }
+        }
+    }
+
+    // fills the first numCases inputs of the batch workspace with the input values of data[start, start + numCases)
+    private void ReadInputs(NetworkInput[] data, int start, int numCases, BatchWorkspace workspace)
+    {
+        for (int i = 0; i < numCases; i++)
+        {
+            if (workspace.precision == Precision.DOUBLE)
+                data[start + i].ReadInputValues(workspace.inputs, i * numInputs);
+            else
+                data[start + i].ReadInputValues(workspace.floatInputs, i * numInputs);
+        }
+    }
+
+    // returns the largest magnitude of the values fed into a layer for the first numCases cases of the batch workspace
+    // after a forward pass, tanh and leaky ReLU layers feed negative values into the layer after them
+    private double MaxInput(BatchWorkspace workspace, int layer, int numCases)
+    {
+        int length = numCases * layers[layer].GetNumInputs();
+        double max = 0;
+        for (int i = 0; i < length; i++)
+        {
+            if (workspace.precision == Precision.DOUBLE)
+                max = Math.max(max, Math.abs((layer == 0) ? workspace.inputs[i] : workspace.activations[layer - 1][i]));
+            else
+                max = Math.max(max, Math.abs((layer == 0) ? workspace.floatInputs[i] : workspace.floatActivations[layer - 1][i]));
+        }
+
+        return max;
+    }
+
+    // calculates the activations of each layer for the first numCases inputs of the batch workspace,
+    // one matrix-matrix product per layer
+    void ForwardPass(BatchWorkspace workspace, int numCases)
+    {
+        if (workspace.precision == Precision.SINGLE)
+        {
+            float[] layerInputs = workspace.floatInputs;
+            for (int i = 0; i < layers.length; i++)
+            {
+                layers[i].CalculateActivations(layerInputs, workspace.floatActivations[i], numCases);
+                layerInputs = workspace.floatActivations[i];
+            }
+            return;
+        }
+
+        double[] layerInputs = workspace.inputs;
+        for (int i = 0; i < layers.length; i++)
+        {
+            layers[i].CalculateActivations(layerInputs, workspace.activations[i], numCases);
+            layerInputs = workspace.activations[i];
+        }
+    }
+
+    // returns the index (relative to offset) of the max value among length values of the array starting at offset
+    static int MaxIndex(double[] values, int offset, int length)
+    {
+        int maxIndex = 0;  // current highest value index
+        for (int i = 1; i < length; i++)
+        {
+            // if the i-th value is greater than previous max, set new max
+            if (values[offset + i] > values[offset + maxIndex])
+                maxIndex = i;
+        }
+
+        return maxIndex;
+    }
+
+    // single precision version of MaxIndex
+    static int MaxIndex(float[] values, int offset, int length)
+    {
+        int maxIndex = 0;
+        for (int i = 1; i < length; i++)
+            if (values[offset + i] > values[offset + maxIndex])
+                maxIndex = i;
+
+        return maxIndex;
+    }
+
+    // returns the index of the max output activation of a case in a batch workspace after a forward pass
+    private int OutputMaxIndex(BatchWorkspace workspace, int caseIndex)
+    {
+        int numOutputs = GetNumOutputs();
+        if (workspace.precision == Precision.DOUBLE)
+            return MaxIndex(workspace.activations[layers.length - 1], caseIndex * numOutputs, numOutputs);
+        return MaxIndex(workspace.floatActivations[layers.length - 1], caseIndex * numOutputs, numOutputs);
+    }
+
+    // getter for precision of the model
+    public Precision GetPrecision()
+    {
+        return layers[0].GetPrecision();
+    }
+
+    // getter for number of inputs
+    public int GetNumInputs()
+    {
+        return numInputs;
+    }
+
+    // getter for number of outputs
+    public int GetNumOutputs()
+    {
+        return layers[layers.length - 1].GetNumNodes();
+    }
+}
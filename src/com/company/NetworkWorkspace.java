@@ -0,0 +1,171 @@
+package com.company;
+import java.util.Arrays;
+
+// holds the mutable per-case state of a network (activations and gradients of every layer)
+// separately from the weights, so several threads can run the same network at once
+public class NetworkWorkspace
+{
+    // precision of the layers the workspace was created for, only the buffers of
+    // that precision are allocated and the others are null
+    final Precision precision;
+
+    // input vector fed into the first layer
+    final double[] inputs;
+    final float[] floatInputs;
+
+    // per-layer state, indexed the same as the network's layer array
+    final double[][] activations;
+    final double[][] biasGradients;
+    final double[][] sumBiasGradients;
+    final double[][] sumWeightGradients;
+    final float[][] floatActivations;
+    final float[][] floatBiasGradients;
+    final float[][] floatSumBiasGradients;
+    final float[][] floatSumWeightGradients;
+
+    // training metrics of the cases run in this workspace since they were last collected
+    long forwardNanos, backPropagateNanos;
+    double sumLoss;
+
+    // constructor allocates state buffers sized to each of the given layers
+    public NetworkWorkspace(Layer[] layers)
+    {
+        precision = layers[0].GetPrecision();
+        boolean isDouble = precision == Precision.DOUBLE;
+
+        // initialize arrays
+        inputs = isDouble ? new double[layers[0].GetNumInputs()] : null;
+        activations = isDouble ? new double[layers.length][] : null;
+        biasGradients = isDouble ? new double[layers.length][] : null;
+        sumBiasGradients = isDouble ? new double[layers.length][] : null;
+        sumWeightGradients = isDouble ? new double[layers.length][] : null;
+        floatInputs = isDouble ? null : new float[layers[0].GetNumInputs()];
+        floatActivations = isDouble ? null : new float[layers.length][];
+        floatBiasGradients = isDouble ? null : new float[layers.length][];
+        floatSumBiasGradients = isDouble ? null : new float[layers.length][];
+        floatSumWeightGradients = isDouble ? null : new float[layers.length][];
+
+        for (int i = 0; i < layers.length; i++)
+        {
+            int numNodes = layers[i].GetNumNodes(), numWeights = layers[i].GetNumNodes() * layers[i].GetNumInputs();
+            if (isDouble)
+            {
+                activations[i] = new double[numNodes];
+                biasGradients[i] = new double[numNodes];
+                sumBiasGradients[i] = new double[numNodes];
+                sumWeightGradients[i] = new double[numWeights];
+            }
+            else
+            {
+                floatActivations[i] = new float[numNodes];
+                floatBiasGradients[i] = new float[numNodes];
+                floatSumBiasGradients[i] = new float[numNodes];
+                floatSumWeightGradients[i] = new float[numWeights];
+            }
+        }
+    }
+
+    // adds the gradient sums of workspaces [first, last) to the gradient sums of this workspace for
+    // elements [from, to) of one layer, zeroing them once added. Workspaces are always added in array
+    // order, so the result does not depend on how many threads share out the reduction
+    void AddGradientSums(NetworkWorkspace[] workspaces, int first, int last, int layer, int from, int to)
+    {
+        if (precision == Precision.SINGLE)
+        {
+            AddFloatGradientSums(workspaces, first, last, layer, from, to);
+            return;
+        }
+
+        Kernels kernels = Kernels.Get();
+        for (int w = first; w < last; w++)
+        {
+            double[] other = workspaces[w].sumWeightGradients[layer];
+            kernels.Axpy(1.0, other, from, sumWeightGradients[layer], from, to - from);
+            Arrays.fill(other, from, to, 0);
+        }
+
+        // bias sums are small, so they are reduced along with the first range of the layer
+        if (from == 0)
+        {
+            double[] sumBiases = sumBiasGradients[layer];
+            for (int w = first; w < last; w++)
+            {
+                double[] other = workspaces[w].sumBiasGradients[layer];
+                for (int i = 0; i < sumBiases.length; i++)
+                {
+                    sumBiases[i] += other[i];
+                    other[i] = 0;
+                }
+            }
+        }
+    }
+
+    // single precision version of AddGradientSums
+    private void AddFloatGradientSums(NetworkWorkspace[] workspaces, int first, int last, int layer, int from, int to)
+    {
+        Kernels kernels = Kernels.Get();
+        for (int w = first; w < last; w++)
+        {
+            float[] other = workspaces[w].floatSumWeightGradients[layer];
+            kernels.Axpy(1.0f, other, from, floatSumWeightGradients[layer], from, to - from);
+            Arrays.fill(other, from, to, 0);
+        }
+
+        if (from == 0)
+        {
+            float[] sumBiases = floatSumBiasGradients[layer];
+            for (int w = first; w < last; w++)
+            {
+                float[] other = workspaces[w].floatSumBiasGradients[layer];
+                for (int i = 0; i < sumBiases.length; i++)
+                {
+                    sumBiases[i] += other[i];
+                    other[i] = 0;
+                }
+            }
+        }
+    }
+
+    // returns the cost of the output activations of the last case run forward, given the cost function
+    // and the correct output vector of the case
+    double CalculateLoss(LossFunction lossFunction, int[] correctOutputVector)
+    {
+        int outputIndex = (precision == Precision.DOUBLE) ? activations.length - 1 : floatActivations.length - 1;
+        double loss = 0;
+        for (int i = 0; i < correctOutputVector.length; i++)
+        {
+            double activation = (precision == Precision.DOUBLE) ? activations[outputIndex][i] : floatActivations[outputIndex][i];
+            if (lossFunction == LossFunction.CROSS_ENTROPY)  // only the probability of the correct output counts
+            {
+                if (correctOutputVector[i] == 1)
+                    loss -= Math.log(Math.max(activation, Double.MIN_VALUE));
+            }
+            else
+            {
+                double error = activation - correctOutputVector[i];
+                loss += 0.5 * error * error;
+            }
+        }
+
+        return loss;
+    }
+
+    // returns the number of weight gradient sums of a layer
+    int GetNumWeightGradients(int layer)
+    {
+        return (precision == Precision.DOUBLE) ? sumWeightGradients[layer].length : floatSumWeightGradients[layer].length;
+    }
+
+    // getter for the activations of a layer, widened to doubles for single precision workspaces
+    public double[] GetActivations(int layer)
+    {
+        if (precision == Precision.DOUBLE)
+            return activations[layer];
+
+        double[] values = new double[floatActivations[layer].length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = floatActivations[layer][i];
+
+        return values;
+    }
+}
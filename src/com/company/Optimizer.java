@@ -0,0 +1,353 @@
+package com.company;
+import java.nio.ByteBuffer;
+
+// updates the weights and biases of a network's layers from the gradient sums of each mini-batch:
+//     "sgd"       plain gradient descent, the default, w -= learnRate * g
+//     "momentum"  heavy ball momentum, v = momentum * v + g, w -= learnRate * v
+//     "nesterov"  Nesterov momentum, v = momentum * v + g, w -= learnRate * (g + momentum * v)
+//     "adam"      Adam, w -= learnRate * m^ / (sqrt(v^) + epsilon) with bias-corrected moving averages m^ of g and v^ of g^2
+// where g is the mean gradient of the mini-batch. Momentum and Adam can reach a given accuracy in fewer epochs than plain
+// gradient descent but need far smaller learning rates, around 0.1 for momentum 0.9 and 0.001-0.003 for Adam where
+// gradient descent uses 3.0. An optimizer holds state for the layers of one network and must not be shared between
+// networks, the state of each layer is kept in flat buffers laid out like the layer's parameters, biases followed by
+// row-major weights, with one buffer per state variable
+public abstract class Optimizer
+{
+    // number of state buffers kept per layer
+    private final int numStateVariables;
+
+    // state buffers of each layer, indexed [layer][state variable]. Only the buffers of the layers' precision are
+    // allocated and the others are null
+    double[][][] states;
+    float[][][] floatStates;
+
+    // number of mini-batches applied since the state was last reset
+    long step;
+
+    // constructor takes the number of state buffers kept per layer
+    protected Optimizer(int numStateVariables)
+    {
+        this.numStateVariables = numStateVariables;
+    }
+
+    // creates plain gradient descent
+    public static Optimizer Sgd()
+    {
+        return new SgdOptimizer();
+    }
+
+    // creates heavy ball momentum with the given momentum coefficient, usually 0.9
+    public static Optimizer Momentum(double momentum)
+    {
+        return new MomentumOptimizer(momentum, false);
+    }
+
+    // creates Nesterov momentum with the given momentum coefficient, usually 0.9
+    public static Optimizer Nesterov(double momentum)
+    {
+        return new MomentumOptimizer(momentum, true);
+    }
+
+    // creates Adam with the usual decay rates of 0.9 and 0.999 and epsilon of 1e-8
+    public static Optimizer Adam()
+    {
+        return new AdamOptimizer(0.9, 0.999, 1e-8);
+    }
+
+    // creates Adam with the given decay rates of the moving averages of the gradient and squared gradient, and epsilon
+    public static Optimizer Adam(double beta1, double beta2, double epsilon)
+    {
+        return new AdamOptimizer(beta1, beta2, epsilon);
+    }
+
+    // creates the named optimizer with its usual settings, or returns null if there is no optimizer with that name
+    public static Optimizer Create(String name)
+    {
+        switch (name)
+        {
+            case "sgd":
+                return Sgd();
+            case "momentum":
+                return Momentum(0.9);
+            case "nesterov":
+                return Nesterov(0.9);
+            case "adam":
+                return Adam();
+            default:
+                return null;
+        }
+    }
+
+    // getter for name of optimizer
+    public abstract String GetName();
+
+    // allocates zeroed state buffers for the given layers, dropping any previous state
+    void Reset(Layer[] layers)
+    {
+        boolean isDouble = layers[0].GetPrecision() == Precision.DOUBLE;
+        states = isDouble ? new double[layers.length][numStateVariables][] : null;
+        floatStates = isDouble ? null : new float[layers.length][numStateVariables][];
+
+        for (int i = 0; i < layers.length; i++)
+        {
+            for (int j = 0; j < numStateVariables; j++)
+            {
+                if (isDouble)
+                    states[i][j] = new double[layers[i].GetNumParameters()];
+                else
+                    floatStates[i][j] = new float[layers[i].GetNumParameters()];
+            }
+        }
+
+        step = 0;
+    }
+
+    // starts applying a mini-batch, called once before the layers are applied
+    void StartStep()
+    {
+        step++;
+    }
+
+    // applies the gradient sums of a mini-batch of batchSize cases to the biases and weights of the layer with the given
+    // index. The gradient sums are left for the caller to clear
+    abstract void Apply(int layer, double learnRate, int batchSize, double[] biases, double[] sumBiasGradients, double[] weights, double[] sumWeightGradients);
+
+    // single precision version of Apply
+    abstract void Apply(int layer, float learnRate, int batchSize, float[] biases, float[] sumBiasGradients, float[] weights, float[] sumWeightGradients);
+
+    // returns the number of bytes written by WriteState
+    int GetStateSize()
+    {
+        int numValues = 0;
+        int numLayers = (states != null) ? states.length : floatStates.length;
+        for (int i = 0; i < numLayers; i++)
+            for (int j = 0; j < numStateVariables; j++)
+                numValues += (states != null) ? states[i][j].length : floatStates[i][j].length;
+
+        return Long.BYTES + numValues * Double.BYTES;
+    }
+
+    // writes the step count followed by every state buffer into the buffer, as doubles in either precision
+    void WriteState(ByteBuffer buffer)
+    {
+        buffer.putLong(step);
+        int numLayers = (states != null) ? states.length : floatStates.length;
+        for (int i = 0; i < numLayers; i++)
+        {
+            for (int j = 0; j < numStateVariables; j++)
+            {
+                if (states != null)
+                {
+                    buffer.asDoubleBuffer().put(states[i][j]);
+                    buffer.position(buffer.position() + states[i][j].length * Double.BYTES);
+                }
+                else
+                {
+                    for (float value : floatStates[i][j])
+                        buffer.putDouble(value);
+                }
+            }
+        }
+    }
+
+    // reads the step count and state buffers written by WriteState from the buffer
+    void ReadState(ByteBuffer buffer)
+    {
+        step = buffer.getLong();
+        int numLayers = (states != null) ? states.length : floatStates.length;
+        for (int i = 0; i < numLayers; i++)
+        {
+            for (int j = 0; j < numStateVariables; j++)
+            {
+                if (states != null)
+                {
+                    buffer.asDoubleBuffer().get(states[i][j]);
+                    buffer.position(buffer.position() + states[i][j].length * Double.BYTES);
+                }
+                else
+                {
+                    float[] values = floatStates[i][j];
+                    for (int k = 0; k < values.length; k++)
+                        values[k] = (float) buffer.getDouble();
+                }
+            }
+        }
+    }
+
+    // plain gradient descent, keeps no state
+    private static class SgdOptimizer extends Optimizer
+    {
+        SgdOptimizer()
+        {
+            super(0);
+        }
+
+        @Override
+        public String GetName()
+        {
+            return "sgd";
+        }
+
+        @Override
+        void Apply(int layer, double learnRate, int batchSize, double[] biases, double[] sumBiasGradients, double[] weights, double[] sumWeightGradients)
+        {
+            double scale = learnRate / batchSize;
+
+            // apply bias gradients
+            for (int i = 0; i < biases.length; i++)
+                biases[i] -= scale * sumBiasGradients[i];
+
+            // apply weight gradients
+            Kernels.Get().Axpy(-scale, sumWeightGradients, 0, weights, 0, weights.length);
+        }
+
+        @Override
+        void Apply(int layer, float learnRate, int batchSize, float[] biases, float[] sumBiasGradients, float[] weights, float[] sumWeightGradients)
+        {
+            float scale = learnRate / batchSize;
+
+            for (int i = 0; i < biases.length; i++)
+                biases[i] -= scale * sumBiasGradients[i];
+
+            Kernels.Get().Axpy(-scale, sumWeightGradients, 0, weights, 0, weights.length);
+        }
+    }
+
+    // heavy ball or Nesterov momentum, keeps a velocity per parameter
+    private static class MomentumOptimizer extends Optimizer
+    {
+        private final double momentum;
+        private final boolean isNesterov;
+
+        MomentumOptimizer(double momentum, boolean isNesterov)
+        {
+            super(1);
+            this.momentum = momentum;
+            this.isNesterov = isNesterov;
+        }
+
+        @Override
+        public String GetName()
+        {
+            return isNesterov ? "nesterov" : "momentum";
+        }
+
+        @Override
+        void Apply(int layer, double learnRate, int batchSize, double[] biases, double[] sumBiasGradients, double[] weights, double[] sumWeightGradients)
+        {
+            double[] velocities = states[layer][0];
+            Update(learnRate, 1.0 / batchSize, biases, sumBiasGradients, velocities, 0);
+            Update(learnRate, 1.0 / batchSize, weights, sumWeightGradients, velocities, biases.length);
+        }
+
+        @Override
+        void Apply(int layer, float learnRate, int batchSize, float[] biases, float[] sumBiasGradients, float[] weights, float[] sumWeightGradients)
+        {
+            float[] velocities = floatStates[layer][0];
+            Update(learnRate, 1.0f / batchSize, biases, sumBiasGradients, velocities, 0);
+            Update(learnRate, 1.0f / batchSize, weights, sumWeightGradients, velocities, biases.length);
+        }
+
+        // updates the values and their velocities, which start at stateOffset in the velocity buffer
+        private void Update(double learnRate, double gradientScale, double[] values, double[] sumGradients, double[] velocities, int stateOffset)
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                double gradient = sumGradients[i] * gradientScale;
+                double velocity = momentum * velocities[stateOffset + i] + gradient;
+                velocities[stateOffset + i] = velocity;
+                values[i] -= learnRate * (isNesterov ? gradient + momentum * velocity : velocity);
+            }
+        }
+
+        // single precision version of Update
+        private void Update(float learnRate, float gradientScale, float[] values, float[] sumGradients, float[] velocities, int stateOffset)
+        {
+            float floatMomentum = (float) momentum;
+            for (int i = 0; i < values.length; i++)
+            {
+                float gradient = sumGradients[i] * gradientScale;
+                float velocity = floatMomentum * velocities[stateOffset + i] + gradient;
+                velocities[stateOffset + i] = velocity;
+                values[i] -= learnRate * (isNesterov ? gradient + floatMomentum * velocity : velocity);
+            }
+        }
+    }
+
+    // Adam, keeps moving averages of the gradient and squared gradient per parameter
+    private static class AdamOptimizer extends Optimizer
+    {
+        private final double beta1, beta2, epsilon;
+
+        // factor of the learning rate correcting the bias of both moving averages towards 0 in early steps
+        private double biasCorrection;
+
+        AdamOptimizer(double beta1, double beta2, double epsilon)
+        {
+            super(2);
+            this.beta1 = beta1;
+            this.beta2 = beta2;
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public String GetName()
+        {
+            return "adam";
+        }
+
+        @Override
+        void StartStep()
+        {
+            super.StartStep();
+            biasCorrection = Math.sqrt(1 - Math.pow(beta2, step)) / (1 - Math.pow(beta1, step));
+        }
+
+        @Override
+        void Apply(int layer, double learnRate, int batchSize, double[] biases, double[] sumBiasGradients, double[] weights, double[] sumWeightGradients)
+        {
+            double stepSize = learnRate * biasCorrection;
+            double[] means = states[layer][0], squares = states[layer][1];
+            Update(stepSize, 1.0 / batchSize, biases, sumBiasGradients, means, squares, 0);
+            Update(stepSize, 1.0 / batchSize, weights, sumWeightGradients, means, squares, biases.length);
+        }
+
+        @Override
+        void Apply(int layer, float learnRate, int batchSize, float[] biases, float[] sumBiasGradients, float[] weights, float[] sumWeightGradients)
+        {
+            float stepSize = (float) (learnRate * biasCorrection);
+            float[] means = floatStates[layer][0], squares = floatStates[layer][1];
+            Update(stepSize, 1.0f / batchSize, biases, sumBiasGradients, means, squares, 0);
+            Update(stepSize, 1.0f / batchSize, weights, sumWeightGradients, means, squares, biases.length);
+        }
+
+        // updates the values and their moving averages, which start at stateOffset in the state buffers
+        private void Update(double stepSize, double gradientScale, double[] values, double[] sumGradients, double[] means, double[] squares, int stateOffset)
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                double gradient = sumGradients[i] * gradientScale;
+                double mean = beta1 * means[stateOffset + i] + (1 - beta1) * gradient;
+                double square = beta2 * squares[stateOffset + i] + (1 - beta2) * gradient * gradient;
+                means[stateOffset + i] = mean;
+                squares[stateOffset + i] = square;
+                values[i] -= stepSize * mean / (Math.sqrt(square) + epsilon);
+            }
+        }
+
+        // single precision version of Update
+        private void Update(float stepSize, float gradientScale, float[] values, float[] sumGradients, float[] means, float[] squares, int stateOffset)
+        {
+            float floatBeta1 = (float) beta1, floatBeta2 = (float) beta2, floatEpsilon = (float) epsilon;
+            for (int i = 0; i < values.length; i++)
+            {
+                float gradient = sumGradients[i] * gradientScale;
+                float mean = floatBeta1 * means[stateOffset + i] + (1 - floatBeta1) * gradient;
+                float square = floatBeta2 * squares[stateOffset + i] + (1 - floatBeta2) * gradient * gradient;
+                means[stateOffset + i] = mean;
+                squares[stateOffset + i] = square;
+                values[i] -= stepSize * mean / ((float) Math.sqrt(square) + floatEpsilon);
+            }
+        }
+    }
+}
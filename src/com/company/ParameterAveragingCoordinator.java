@@ -0,0 +1,319 @@
+package com.company;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+// coordinator of data-parallel training across worker processes on one host by parameter averaging. Workers, see
+// ParameterAveragingWorker, connect over loopback TCP and are sent the network, its optimizer and the training
+// settings. Each worker trains its own copy of the network on a shard of the training data, and every syncInterval
+// mini-batches, and at the end of every epoch, sends its parameters here, waits for the mean of every worker's
+// parameters and carries on from the mean. Every worker runs the same number of mini-batches, so they reach each
+// synchronization together. Optimizer state such as momentum stays local to each worker. Averaging after every
+// mini-batch takes one step per numWorkers mini-batches, like training on mini-batches numWorkers times larger, so
+// the learning rate may need raising with the number of workers to converge in as few epochs. Once training finishes
+// the network given to the coordinator holds the final mean parameters
+/* Protocol (big-endian, one connection per worker)
+    worker:      magic 0x4D4E5041 ("MNPA"), version, number of training inputs the worker loaded
+    coordinator: worker index, number of workers, shuffle seed, learning rate, mini-batch size, number of epochs,
+                 synchronization interval, length of the optimizer name followed by the name as ASCII, length of the
+                 binary network file followed by the file as written by SaveNetwork
+    then for each synchronization:
+    worker:      1 if it is the last synchronization of training or else 0, followed by the worker's parameters as
+                 written by NeuralNetwork.WriteParameters, in the network's precision and little-endian
+    coordinator: mean of the parameters of every worker, in the same layout
+*/
+public final class ParameterAveragingCoordinator
+{
+    // first values sent by a worker
+    static final int PROTOCOL_MAGIC = 0x4D4E5041, PROTOCOL_VERSION = 1;
+
+    // milliseconds to wait for every worker to connect, and for every worker to reach a synchronization
+    static final int CONNECT_TIMEOUT_MILLIS = 60_000, SYNC_TIMEOUT_MILLIS = 600_000;
+
+    // network trained, which holds the starting parameters sent to workers and receives the final ones
+    private final NeuralNetwork network;
+
+    // number of workers to wait for
+    private final int numWorkers;
+
+    // port to listen on, 0 picks a free port when the coordinator starts
+    private final int port;
+
+    // seed of the shuffling of every worker, worker i shuffles its shard with seed + i
+    private long seed = new Random().nextLong();
+
+    // listening socket and connections to workers, null while stopped
+    private ServerSocket serverSocket;
+    private Socket[] workerSockets;
+
+    // counters of the last training run: synchronizations, parameter bytes sent and received, and time from receiving
+    // the parameters of the last worker to reach a synchronization to sending the mean to every worker
+    private int numSyncs;
+    private long numBytes, averageNanos;
+
+    // constructor takes the network to train, the number of workers to train it on and the port to listen on
+    public ParameterAveragingCoordinator(NeuralNetwork network, int numWorkers, int port)
+    {
+        this.network = network;
+        this.numWorkers = Math.max(1, numWorkers);
+        this.port = port;
+    }
+
+    // sets the seed of the shuffling of the training data, random by default
+    public ParameterAveragingCoordinator SetSeed(long seed)
+    {
+        this.seed = seed;
+        return this;
+    }
+
+    // starts listening for workers on the loopback address, returns false and prints error message if the port could not be opened
+    public synchronized boolean Start()
+    {
+        if (serverSocket != null)
+            return true;
+
+        try
+        {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), numWorkers);
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.out.println("The training coordinator could not listen on port " + port + ": " + e.getMessage());
+            serverSocket = null;
+            return false;
+        }
+    }
+
+    // stops listening and closes the connection to every worker, which makes a training run in progress fail
+    public synchronized void Stop()
+    {
+        CloseSockets();
+        try
+        {
+            if (serverSocket != null)
+                serverSocket.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+        serverSocket = null;
+    }
+
+    // waits for every worker to connect and coordinates training with the given learning rate, mini-batch size and
+    // number of epochs, averaging parameters every syncInterval mini-batches. Returns false and prints error message
+    // if the mini-batch size or number of epochs is less than 1, the coordinator is not started, a worker did not
+    // connect or answer in time, or a worker disconnected
+    public boolean Train(double learnRate, int batchSize, int numEpochs, int syncInterval)
+    {
+        // workers only synchronize at the end of mini-batches, so they must train at least one
+        if (batchSize < 1 || numEpochs < 1)
+        {
+            System.out.println("Distributed training needs a mini-batch size and number of epochs of at least 1, halting training");
+            return false;
+        }
+
+        ServerSocket listener;
+        Socket[] sockets = new Socket[numWorkers];
+        synchronized (this)
+        {
+            listener = serverSocket;
+            workerSockets = sockets;
+        }
+        if (listener == null)
+        {
+            System.out.println("The training coordinator must be started before training");
+            return false;
+        }
+
+        numSyncs = 0;
+        numBytes = averageNanos = 0;
+        DataInputStream[] inputs = new DataInputStream[numWorkers];
+        DataOutputStream[] outputs = new DataOutputStream[numWorkers];
+        try
+        {
+            // accept workers, checking they all loaded the same training data
+            listener.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            int numInputs = 0;
+            for (int i = 0; i < numWorkers; i++)
+            {
+                sockets[i] = listener.accept();
+                sockets[i].setSoTimeout(SYNC_TIMEOUT_MILLIS);
+                sockets[i].setTcpNoDelay(true);
+                inputs[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream(), 1 << 16));
+                outputs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream(), 1 << 16));
+
+                if (inputs[i].readInt() != PROTOCOL_MAGIC || inputs[i].readInt() != PROTOCOL_VERSION)
+                {
+                    System.out.println("A training worker spoke an unknown protocol, halting training");
+                    return false;
+                }
+
+                int workerInputs = inputs[i].readInt();
+                if (i > 0 && workerInputs != numInputs)
+                {
+                    System.out.println("Training workers loaded training data of different sizes, halting training");
+                    return false;
+                }
+                numInputs = workerInputs;
+            }
+
+            if (numInputs / numWorkers < batchSize)
+            {
+                System.out.println("Each worker's share of the " + numInputs + " training inputs is smaller than a mini-batch, halting training");
+                return false;
+            }
+
+            // send network, optimizer and settings
+            byte[] networkFile = network.CreateNetworkFile().array();
+            byte[] optimizerName = network.GetOptimizer().GetName().getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < numWorkers; i++)
+            {
+                outputs[i].writeInt(i);
+                outputs[i].writeInt(numWorkers);
+                outputs[i].writeLong(seed);
+                outputs[i].writeDouble(learnRate);
+                outputs[i].writeInt(batchSize);
+                outputs[i].writeInt(numEpochs);
+                outputs[i].writeInt(Math.max(1, syncInterval));
+                outputs[i].writeInt(optimizerName.length);
+                outputs[i].write(optimizerName);
+                outputs[i].writeInt(networkFile.length);
+                outputs[i].write(networkFile);
+                outputs[i].flush();
+            }
+
+            // average parameters of every synchronization until the last one
+            Precision precision = network.GetPrecision();
+            byte[] parameters = new byte[network.GetNumParameters() * precision.GetNumBytes()];
+            ByteBuffer parameterBuffer = ByteBuffer.wrap(parameters).order(ByteOrder.LITTLE_ENDIAN);
+            double[] sums = new double[network.GetNumParameters()];
+            boolean isLast = false;
+            while (!isLast)
+            {
+                Arrays.fill(sums, 0);
+                for (int i = 0; i < numWorkers; i++)
+                {
+                    boolean workerIsLast = inputs[i].readInt() != 0;
+                    if (i > 0 && workerIsLast != isLast)
+                    {
+                        System.out.println("Training workers are out of step, halting training");
+                        return false;
+                    }
+                    isLast = workerIsLast;
+
+                    inputs[i].readFully(parameters);
+                    AddParameters(parameterBuffer, precision, sums);
+                }
+
+                long averageStart = System.nanoTime();
+                SetParameters(parameterBuffer, precision, sums, 1.0 / numWorkers);
+                for (DataOutputStream output : outputs)
+                {
+                    output.write(parameters);
+                    output.flush();
+                }
+                averageNanos += System.nanoTime() - averageStart;
+                numSyncs++;
+                numBytes += 2L * numWorkers * parameters.length;
+            }
+
+            // keep final parameters
+            network.ReadParameters(parameterBuffer.clear());
+            return true;
+        }
+        catch (SocketTimeoutException e)
+        {
+            System.out.println("A training worker did not connect or answer in time, halting training");
+            return false;
+        }
+        catch (EOFException e)
+        {
+            System.out.println("A training worker disconnected, halting training");
+            return false;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Lost connection to a training worker, halting training: " + e.getMessage());
+            return false;
+        }
+        finally
+        {
+            CloseSockets();
+        }
+    }
+
+    // adds parameters held in the buffer in the given precision to the sums
+    private static void AddParameters(ByteBuffer buffer, Precision precision, double[] sums)
+    {
+        for (int i = 0; i < sums.length; i++)
+            sums[i] += (precision == Precision.DOUBLE) ? buffer.getDouble(i * Double.BYTES) : buffer.getFloat(i * Float.BYTES);
+    }
+
+    // writes the sums times scale into the buffer in the given precision
+    private static void SetParameters(ByteBuffer buffer, Precision precision, double[] sums, double scale)
+    {
+        for (int i = 0; i < sums.length; i++)
+        {
+            if (precision == Precision.DOUBLE)
+                buffer.putDouble(i * Double.BYTES, sums[i] * scale);
+            else
+                buffer.putFloat(i * Float.BYTES, (float) (sums[i] * scale));
+        }
+    }
+
+    // closes the connection to every worker of the current training run
+    private synchronized void CloseSockets()
+    {
+        if (workerSockets == null)
+            return;
+
+        for (Socket socket : workerSockets)
+        {
+            try
+            {
+                if (socket != null)
+                    socket.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+        workerSockets = null;
+    }
+
+    // region Getters
+    // getter for port being listened on, the actual port once started if the port given was 0
+    public synchronized int GetPort()
+    {
+        return (serverSocket != null) ? serverSocket.getLocalPort() : port;
+    }
+
+    // getter for number of synchronizations of the last training run
+    public int GetNumSyncs()
+    {
+        return numSyncs;
+    }
+
+    // getter for number of parameter bytes received from and sent to workers in the last training run
+    public long GetNumBytes()
+    {
+        return numBytes;
+    }
+
+    // getter for time spent averaging and sending parameters after every worker reached a synchronization in the last training run
+    public long GetAverageNanos()
+    {
+        return averageNanos;
+    }
+    // endregion
+}
@@ -0,0 +1,193 @@
+package com.company;
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// worker of data-parallel training coordinated by a ParameterAveragingCoordinator, usually run in its own process with
+//     java com.company.Main worker --coordinator <host:port> --train <dataset>
+// Every worker loads the whole training set, which is memory-mapped when it is a dataset cache file so the workers
+// share one copy through the page cache, and trains on every numWorkers-th input starting at its worker index. Shards
+// are cut to the same size, dropping up to numWorkers - 1 inputs, so every worker runs the same number of mini-batches
+public final class ParameterAveragingWorker
+{
+    // whole training set, of which this worker trains its shard
+    private final NetworkInput[] trainingData;
+
+    // number of threads computing the gradients of each mini-batch
+    private final int numThreads;
+
+    // network being trained, created from the one sent by the coordinator, null before training
+    private NeuralNetwork network;
+
+    // counters of the last training run: index of this worker, number of workers, synchronizations, training inputs
+    // run, time spent training mini-batches, and time spent sending parameters and waiting for their mean
+    private int workerIndex, numWorkers, numSyncs;
+    private long numSamples, trainNanos, syncNanos;
+
+    // constructor takes the whole training set, which must be the same for every worker, and the number of threads
+    // computing the gradients of each mini-batch
+    public ParameterAveragingWorker(NetworkInput[] trainingData, int numThreads)
+    {
+        this.trainingData = trainingData;
+        this.numThreads = numThreads;
+    }
+
+    // connects to the coordinator and trains until the coordinator's training run finishes. Returns false and prints
+    // error message if the connection failed or was lost, or the coordinator sent a network this worker cannot use
+    public boolean Train(String host, int port)
+    {
+        numSyncs = 0;
+        numSamples = trainNanos = syncNanos = 0;
+        try (Socket socket = new Socket(host, port))
+        {
+            socket.setSoTimeout(ParameterAveragingCoordinator.SYNC_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+            output.writeInt(ParameterAveragingCoordinator.PROTOCOL_MAGIC);
+            output.writeInt(ParameterAveragingCoordinator.PROTOCOL_VERSION);
+            output.writeInt(trainingData.length);
+            output.flush();
+
+            // read settings, optimizer and network
+            workerIndex = input.readInt();
+            numWorkers = input.readInt();
+            long seed = input.readLong();
+            double learnRate = input.readDouble();
+            int batchSize = input.readInt(), numEpochs = input.readInt(), syncInterval = input.readInt();
+            byte[] optimizerName = new byte[input.readInt()];
+            input.readFully(optimizerName);
+            byte[] networkFile = new byte[input.readInt()];
+            input.readFully(networkFile);
+
+            network = NeuralNetwork.CreateFromBuffer(ByteBuffer.wrap(networkFile).order(ByteOrder.LITTLE_ENDIAN));
+            Optimizer optimizer = Optimizer.Create(new String(optimizerName, StandardCharsets.US_ASCII));
+            if (network == null || optimizer == null)
+            {
+                System.out.println("The training coordinator sent a network or optimizer that could not be read, halting training");
+                return false;
+            }
+            network.SetOptimizer(optimizer);
+            network.SetNumThreads(numThreads);
+
+            // take shard of training data
+            NetworkInput[] shard = new NetworkInput[trainingData.length / numWorkers];
+            for (int i = 0; i < shard.length; i++)
+                shard[i] = trainingData[workerIndex + i * numWorkers];
+
+            byte[] parameters = new byte[network.GetNumParameters() * network.GetPrecision().GetNumBytes()];
+            ByteBuffer parameterBuffer = ByteBuffer.wrap(parameters).order(ByteOrder.LITTLE_ENDIAN);
+            NetworkInput[] miniBatch = new NetworkInput[batchSize];
+            int[] order = new int[shard.length];
+            int numBatches = shard.length / batchSize;
+            Random random = new Random(seed + workerIndex);
+
+            for (int epoch = 0; epoch < numEpochs; epoch++)
+            {
+                // shuffle indices of shard, as TrainNetwork does
+                for (int k = 0; k < order.length; k++)
+                    order[k] = k;
+                for (int k = order.length; k > 1; k--)
+                {
+                    int swap = random.nextInt(k), index = order[k - 1];
+                    order[k - 1] = order[swap];
+                    order[swap] = index;
+                }
+
+                for (int j = 0; j < numBatches; j++)
+                {
+                    long start = System.nanoTime();
+                    for (int k = 0; k < batchSize; k++)
+                        miniBatch[k] = shard[order[j * batchSize + k]];
+                    network.RunMiniBatch(miniBatch, learnRate);
+                    numSamples += batchSize;
+                    trainNanos += System.nanoTime() - start;
+
+                    // send parameters and carry on from the mean of every worker's parameters
+                    if ((j + 1) % syncInterval == 0 || j + 1 == numBatches)
+                    {
+                        start = System.nanoTime();
+                        network.WriteParameters(parameterBuffer.clear());
+                        output.writeInt((epoch + 1 == numEpochs && j + 1 == numBatches) ? 1 : 0);
+                        output.write(parameters);
+                        output.flush();
+
+                        input.readFully(parameters);
+                        network.ReadParameters(parameterBuffer.clear());
+                        numSyncs++;
+                        syncNanos += System.nanoTime() - start;
+                    }
+                }
+            }
+
+            return true;
+        }
+        catch (SocketTimeoutException e)
+        {
+            System.out.println("The training coordinator did not answer in time, halting training");
+            return false;
+        }
+        catch (EOFException e)
+        {
+            System.out.println("The training coordinator disconnected, halting training");
+            return false;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Lost connection to the training coordinator, halting training: " + e.getMessage());
+            return false;
+        }
+        finally
+        {
+            if (network != null)
+                network.SetNumThreads(1);
+        }
+    }
+
+    // region Getters
+    // getter for network trained by the last training run, holding the final mean parameters, null before training
+    public NeuralNetwork GetNetwork()
+    {
+        return network;
+    }
+
+    public int GetWorkerIndex()
+    {
+        return workerIndex;
+    }
+
+    public int GetNumWorkers()
+    {
+        return numWorkers;
+    }
+
+    public int GetNumSyncs()
+    {
+        return numSyncs;
+    }
+
+    // getter for number of training inputs run by this worker in the last training run
+    public long GetNumSamples()
+    {
+        return numSamples;
+    }
+
+    // getter for time spent running mini-batches in the last training run
+    public long GetTrainNanos()
+    {
+        return trainNanos;
+    }
+
+    // getter for time spent sending parameters and waiting for their mean in the last training run, which includes
+    // waiting for slower workers to reach each synchronization
+    public long GetSyncNanos()
+    {
+        return syncNanos;
+    }
+    // endregion
+}
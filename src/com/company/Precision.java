@@ -0,0 +1,23 @@
+package com.company;
+
+// floating point precision used to store and compute the weights, activations and gradients of a network.
+// SINGLE halves the memory and bandwidth used by every layer and doubles the number of values processed
+// by each SIMD instruction, at the cost of about 7 significant digits instead of 16
+public enum Precision
+{
+    DOUBLE(Double.BYTES), SINGLE(Float.BYTES);
+
+    // size of one stored value in bytes
+    private final int numBytes;
+
+    Precision(int numBytes)
+    {
+        this.numBytes = numBytes;
+    }
+
+    // getter for size of one stored value in bytes
+    public int GetNumBytes()
+    {
+        return numBytes;
+    }
+}
@@ -0,0 +1,212 @@
+package com.company;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// bounded least recently used cache of predictions, keyed by the 0-255 pixel values of an input so resubmitted images
+// skip the forward pass. Keys are hashed 8 pixels at a time, and a hash match is only a hit if every pixel matches
+// too, so colliding images never share a prediction. Inputs are only cached if every value is exactly one read from
+// a pixel by NetworkInput, which holds for every image, so a hit always gives the same answer as running the network.
+// Entries belong to a version of the weights given by the caller, which must only ever increase: the first lookup or
+// store with a newer version drops every entry, so changing the weights invalidates the cache without the cache knowing
+// about the network, and lookups and stores with an older version miss and are ignored. Each entry
+// takes about 1 KB for 784 pixel images. All methods are synchronized, so one cache can be shared between threads
+public final class PredictionCache
+{
+    // reads 8 pixels at a time as a little-endian long
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // largest number of entries
+    private final int capacity;
+
+    // entries in access order, least recently used first, and the weights version they belong to
+    private final LinkedHashMap<Key, Entry> entries;
+    private long version;
+
+    // counters since the cache was created
+    private long numHits, numMisses, numEvictions, numInvalidations;
+
+    // pixel values of an input with their hash
+    private static final class Key
+    {
+        final byte[] pixels;
+        final int hash;
+
+        Key(byte[] pixels)
+        {
+            this.pixels = pixels;
+            this.hash = Hash(pixels);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Key && ((Key) other).hash == hash && Arrays.equals(((Key) other).pixels, pixels);
+        }
+    }
+
+    // cached prediction of an input with the output activations it was made from
+    private static final class Entry
+    {
+        final int prediction;
+        final double[] outputActivations;
+
+        Entry(int prediction, double[] outputActivations)
+        {
+            this.prediction = prediction;
+            this.outputActivations = outputActivations;
+        }
+    }
+
+    // constructor takes the largest number of entries to keep
+    public PredictionCache(int capacity)
+    {
+        this.capacity = Math.max(1, capacity);
+        entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+            {
+                if (size() <= PredictionCache.this.capacity)
+                    return false;
+
+                numEvictions++;
+                return true;
+            }
+        };
+    }
+
+    // returns the pixel values an input was read from, or null if a value is not exactly the input value of a pixel,
+    // in which case the input cannot be cached
+    public static byte[] GetPixels(double[] input)
+    {
+        byte[] pixels = new byte[input.length];
+        double pixelsPerValue = 255 / NetworkInput.GetInputValue(255);
+        for (int i = 0; i < input.length; i++)
+        {
+            int pixel = (int) Math.round(input[i] * pixelsPerValue);
+            if (pixel < 0 || pixel > 255 || NetworkInput.GetInputValue(pixel) != input[i])
+                return null;
+            pixels[i] = (byte) pixel;
+        }
+
+        return pixels;
+    }
+
+    // returns the cached prediction of the pixels under the given weights version and copies its output activations
+    // into outputActivations if it is not null, or returns -1 on a miss
+    public synchronized int Get(byte[] pixels, long version, double[] outputActivations)
+    {
+        Entry entry = IsCurrentVersion(version) ? entries.get(new Key(pixels)) : null;
+        if (entry == null)
+        {
+            numMisses++;
+            return -1;
+        }
+
+        numHits++;
+        if (outputActivations != null)
+            System.arraycopy(entry.outputActivations, 0, outputActivations, 0, entry.outputActivations.length);
+        return entry.prediction;
+    }
+
+    // stores the prediction and output activations of the pixels under the given weights version, evicting the least
+    // recently used entry if the cache is full. The pixel and output arrays are copied
+    public synchronized void Put(byte[] pixels, long version, int prediction, double[] outputActivations)
+    {
+        if (IsCurrentVersion(version))
+            entries.put(new Key(pixels.clone()), new Entry(prediction, outputActivations.clone()));
+    }
+
+    // drops every entry
+    public synchronized void Clear()
+    {
+        numInvalidations += entries.size();
+        entries.clear();
+    }
+
+    // drops every entry if the weights version is newer than the entries, returns false if it is older
+    private boolean IsCurrentVersion(long version)
+    {
+        if (version > this.version)
+        {
+            Clear();
+            this.version = version;
+        }
+
+        return version == this.version;
+    }
+
+    // returns a hash of the pixels, mixing in 8 pixels at a time
+    private static int Hash(byte[] pixels)
+    {
+        long hash = pixels.length * 0x9E3779B97F4A7C15L;
+        int i = 0;
+        for (; i + Long.BYTES <= pixels.length; i += Long.BYTES)
+            hash = Long.rotateLeft(hash ^ ((long) LONG_VIEW.get(pixels, i) * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+        for (; i < pixels.length; i++)
+            hash = Long.rotateLeft(hash ^ ((pixels[i] & 0xFF) * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+
+        // spread high bits into the low bits used by the hash table
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+
+    // returns the counters as JSON, as answered by the inference server's metrics
+    public synchronized String GetMetricsJson()
+    {
+        return String.format(Locale.ROOT, "{\"size\":%d,\"capacity\":%d,\"hits\":%d,\"misses\":%d,\"hitRate\":%.4f,\"evictions\":%d,\"invalidations\":%d}",
+                entries.size(), capacity, numHits, numMisses, GetHitRate(), numEvictions, numInvalidations);
+    }
+
+    // region Getters
+    public synchronized int GetSize()
+    {
+        return entries.size();
+    }
+
+    public int GetCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized long GetNumHits()
+    {
+        return numHits;
+    }
+
+    public synchronized long GetNumMisses()
+    {
+        return numMisses;
+    }
+
+    // returns the fraction of lookups that were hits, 0 before the first lookup
+    public synchronized double GetHitRate()
+    {
+        return (numHits + numMisses > 0) ? (double) numHits / (numHits + numMisses) : 0;
+    }
+
+    public synchronized long GetNumEvictions()
+    {
+        return numEvictions;
+    }
+
+    // returns the number of entries dropped because the weights changed or the cache was cleared
+    public synchronized long GetNumInvalidations()
+    {
+        return numInvalidations;
+    }
+    // endregion
+}
@@ -0,0 +1,212 @@
+package com.company;
+
+// int8 quantized copy of a network used for inference. Each layer stores its weights as 8-bit integers with one
+// scale per layer, and the values fed into each layer are quantized to 8-bit integers with a scale calibrated
+// from the largest magnitude seen on sample data. Dot-products are accumulated in 32-bit integers along with biases
+// quantized to the product of both scales, then scaled back to a real value for the activation function.
+// Weights take an eighth of the memory of a double precision network. Models are immutable and keep all
+// activations in per-call scratch buffers, so any number of threads can run predictions against one model at once
+public final class QuantizedModel
+{
+    // largest magnitude of a quantized weight or input value
+    private static final int MAX_QUANTIZED_VALUE = 127;
+
+    // number of values in the input vector
+    private final int numInputs;
+
+    // per-layer weights as row-major 8-bit matrices, and biases as 32-bit integers at the scale of the layer's dot-products
+    private final byte[][] weights;
+    private final int[][] biases;
+
+    // per-layer reciprocal of the scale of quantized input values, and scale of dot-products (input scale times weight scale)
+    private final double[] inverseInputScales;
+    private final double[] productScales;
+
+    // quantized input value of each possible pixel value
+    private final byte[] pixelValues = new byte[256];
+
+    // activation function of each layer
+    private final Activation[] activations;
+
+    // constructor quantizes the given layers, maxInputs holds the largest magnitude of the values fed into each layer
+    // during calibration
+    QuantizedModel(Layer[] layers, double[] maxInputs)
+    {
+        // initialize arrays
+        numInputs = layers[0].GetNumInputs();
+        weights = new byte[layers.length][];
+        biases = new int[layers.length][];
+        inverseInputScales = new double[layers.length];
+        productScales = new double[layers.length];
+        activations = new Activation[layers.length];
+
+        for (int l = 0; l < layers.length; l++)
+        {
+            Layer layer = layers[l];
+            int layerInputs = layer.GetNumInputs(), layerNodes = layer.GetNumNodes();
+            activations[l] = layer.GetActivation();
+
+            // find largest weight magnitude of layer to get weight scale
+            double maxWeight = 0;
+            for (int i = 0; i < layerNodes; i++)
+                for (int j = 0; j < layerInputs; j++)
+                    maxWeight = Math.max(maxWeight, Math.abs(layer.GetWeight(i, j)));
+            double weightScale = (maxWeight > 0) ? maxWeight / MAX_QUANTIZED_VALUE : 1;
+
+            double inputScale = (maxInputs[l] > 0) ? maxInputs[l] / MAX_QUANTIZED_VALUE : 1;
+            inverseInputScales[l] = 1 / inputScale;
+            productScales[l] = inputScale * weightScale;
+
+            // quantize weights and biases
+            weights[l] = new byte[layerNodes * layerInputs];
+            biases[l] = new int[layerNodes];
+            for (int i = 0; i < layerNodes; i++)
+            {
+                biases[l][i] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.round(layer.GetBias(i) / productScales[l])));
+                for (int j = 0; j < layerInputs; j++)
+                    weights[l][i * layerInputs + j] = Quantize(layer.GetWeight(i, j), 1 / weightScale);
+            }
+        }
+
+        for (int i = 0; i < pixelValues.length; i++)
+            pixelValues[i] = Quantize(NetworkInput.GetInputValue(i), inverseInputScales[0]);
+    }
+
+    // run model on given input, returning the index of the max output activation
+    // inputs must be normalized between 0.0-1.0
+    public int Predict(double[] input)
+    {
+        return Predict(input, null);
+    }
+
+    // run model on given input, returning the index of the max output activation, if outputActivations
+    // is not null the output layer activations are copied into it
+    // inputs must be normalized between 0.0-1.0
+    public int Predict(double[] input, double[] outputActivations)
+    {
+        byte[] quantizedInput = new byte[numInputs];
+        for (int i = 0; i < numInputs; i++)
+            quantizedInput[i] = Quantize(input[i], inverseInputScales[0]);
+
+        return Run(quantizedInput, CreateScratch(), outputActivations);
+    }
+
+    // run model on given NetworkInput, returning the index of the max output activation
+    public int Predict(NetworkInput input)
+    {
+        byte[] quantizedInput = new byte[numInputs];
+        ReadInput(input, quantizedInput);
+
+        return Run(quantizedInput, CreateScratch(), null);
+    }
+
+    // runs through test data set and gives back array of correctly answered inputs
+    public boolean[] TestModel(NetworkInput[] testingData)
+    {
+        // track which cases were answered correctly and incorrectly
+        boolean[] correctlyAnsweredInputs = new boolean[testingData.length];
+
+        // scratch buffers are shared by every case
+        byte[] quantizedInput = new byte[numInputs];
+        byte[][] scratch = CreateScratch();
+
+        for (int i = 0; i < testingData.length; i++)
+        {
+            ReadInput(testingData[i], quantizedInput);
+            correctlyAnsweredInputs[i] = (testingData[i].correctOutput == Run(quantizedInput, scratch, null));
+        }
+
+        return correctlyAnsweredInputs;
+    }
+
+    // runs quantized input through every layer, scratch holds the quantized activations of every layer but
+    // the last, returns the index of the max output activation and copies the output activations into
+    // outputActivations if it is not null
+    private int Run(byte[] input, byte[][] scratch, double[] outputActivations)
+    {
+        Kernels kernels = Kernels.Get();
+        int outputIndex = weights.length - 1;
+        byte[] layerInput = input;
+        int maxIndex = 0;
+        double maxSum = Double.NEGATIVE_INFINITY;
+
+        for (int l = 0; l <= outputIndex; l++)
+        {
+            int layerInputs = layerInput.length, layerNodes = biases[l].length;
+            for (int i = 0; i < layerNodes; i++)
+            {
+                // accumulate dot-product and bias in integers, then scale back to a real weighted sum
+                int sum = kernels.Dot(weights[l], i * layerInputs, layerInput, 0, layerInputs) + biases[l][i];
+                double weightedSum = sum * productScales[l];
+
+                if (l < outputIndex)  // quantize activation as an input of the next layer
+                {
+                    scratch[l][i] = Quantize(activations[l].Apply(weightedSum), inverseInputScales[l + 1]);
+                }
+                else  // every activation is non-decreasing, so the max output activation has the max weighted sum
+                {
+                    if (weightedSum > maxSum)
+                    {
+                        maxSum = weightedSum;
+                        maxIndex = i;
+                    }
+                    if (outputActivations != null)
+                        outputActivations[i] = weightedSum;
+                }
+            }
+
+            if (l < outputIndex)
+                layerInput = scratch[l];
+        }
+
+        if (outputActivations != null)
+            activations[outputIndex].Apply(outputActivations, biases[outputIndex].length, 1);
+
+        return maxIndex;
+    }
+
+    // writes the quantized input values of a NetworkInput into the given array
+    private void ReadInput(NetworkInput input, byte[] quantizedInput)
+    {
+        for (int i = 0; i < numInputs; i++)
+            quantizedInput[i] = pixelValues[input.GetPixel(i)];
+    }
+
+    // creates buffers for the quantized activations of every layer but the last
+    private byte[][] CreateScratch()
+    {
+        byte[][] scratch = new byte[biases.length - 1][];
+        for (int l = 0; l < scratch.length; l++)
+            scratch[l] = new byte[biases[l].length];
+
+        return scratch;
+    }
+
+    // quantizes value to the nearest multiple of the scale whose reciprocal is given, clamped to the range of quantized values
+    private static byte Quantize(double value, double inverseScale)
+    {
+        return (byte) Math.max(-MAX_QUANTIZED_VALUE, Math.min(MAX_QUANTIZED_VALUE, Math.round(value * inverseScale)));
+    }
+
+    // getter for number of inputs
+    public int GetNumInputs()
+    {
+        return numInputs;
+    }
+
+    // getter for number of outputs
+    public int GetNumOutputs()
+    {
+        return biases[biases.length - 1].length;
+    }
+
+    // getter for number of bytes used by the quantized weights and biases
+    public long GetNumParameterBytes()
+    {
+        long numBytes = 0;
+        for (int l = 0; l < weights.length; l++)
+            numBytes += weights[l].length + (long) biases[l].length * Integer.BYTES;
+
+        return numBytes;
+    }
+}
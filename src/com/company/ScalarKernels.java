@@ -0,0 +1,99 @@
+package com.company;
+
+// plain loop kernels, used when the vector module is not present
+public class ScalarKernels extends Kernels
+{
+    @Override
+    public double Dot(double[] a, int aOffset, double[] b, int bOffset, int length)
+    {
+        double sum = 0;
+        for (int i = 0; i < length; i++)
+            sum += a[aOffset + i] * b[bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public void Dot4(double[] a, int aOffset, double[] b, int bOffset, int bStride, int length, double[] results, int resultsOffset, int resultsStride)
+    {
+        int b0 = bOffset, b1 = b0 + bStride, b2 = b1 + bStride, b3 = b2 + bStride;
+        double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+        // each value of a is loaded once for all four vectors of b
+        for (int i = 0; i < length; i++)
+        {
+            double value = a[aOffset + i];
+            sum0 += value * b[b0 + i];
+            sum1 += value * b[b1 + i];
+            sum2 += value * b[b2 + i];
+            sum3 += value * b[b3 + i];
+        }
+
+        results[resultsOffset] = sum0;
+        results[resultsOffset + resultsStride] = sum1;
+        results[resultsOffset + 2 * resultsStride] = sum2;
+        results[resultsOffset + 3 * resultsStride] = sum3;
+    }
+
+    @Override
+    public void Axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length)
+    {
+        for (int i = 0; i < length; i++)
+            y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public float Dot(float[] a, int aOffset, float[] b, int bOffset, int length)
+    {
+        float sum = 0;
+        for (int i = 0; i < length; i++)
+            sum += a[aOffset + i] * b[bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public void Dot4(float[] a, int aOffset, float[] b, int bOffset, int bStride, int length, float[] results, int resultsOffset, int resultsStride)
+    {
+        int b0 = bOffset, b1 = b0 + bStride, b2 = b1 + bStride, b3 = b2 + bStride;
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+        // each value of a is loaded once for all four vectors of b
+        for (int i = 0; i < length; i++)
+        {
+            float value = a[aOffset + i];
+            sum0 += value * b[b0 + i];
+            sum1 += value * b[b1 + i];
+            sum2 += value * b[b2 + i];
+            sum3 += value * b[b3 + i];
+        }
+
+        results[resultsOffset] = sum0;
+        results[resultsOffset + resultsStride] = sum1;
+        results[resultsOffset + 2 * resultsStride] = sum2;
+        results[resultsOffset + 3 * resultsStride] = sum3;
+    }
+
+    @Override
+    public void Axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length)
+    {
+        for (int i = 0; i < length; i++)
+            y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public int Dot(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+    {
+        int sum = 0;
+        for (int i = 0; i < length; i++)
+            sum += a[aOffset + i] * b[bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public String GetName()
+    {
+        return "scalar";
+    }
+}
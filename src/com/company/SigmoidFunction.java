@@ -0,0 +1,139 @@
+package com.company;
+
+// implementations of the sigmoid activation function used by sigmoid layers. The function is chosen when the class
+// loads from the "mnist.sigmoid" system property and can be changed at runtime with Select:
+//     "exact"  1 / (1 + Math.pow(Math.E, -x)), the original formula
+//     "exp"    1 / (1 + Math.exp(-x)), the default, within 5e-15 relative error of "exact" and several times faster
+//     "table"  linear interpolation between TABLE_SIZE values spread over [-TABLE_RANGE, TABLE_RANGE], clamped to the
+//              end values outside of it, absolute error at most 3e-6 everywhere (interpolation error is below
+//              max|sigmoid''| * step^2 / 8 = 2.9e-6 and the clamped tails are within 1.2e-7 of the exact value)
+// Every implementation gives values in [0, 1] that increase with x, so back propagation can keep using a * (1 - a)
+// as the derivative and argmax outputs are unaffected by the choice of function
+public abstract class SigmoidFunction
+{
+    // function used by all layers
+    private static SigmoidFunction current = Create(System.getProperty("mnist.sigmoid", "exp"));
+
+    // applies the function to a single value
+    public abstract double Apply(double x);
+
+    // replaces length values of the array starting at offset with the function applied to them
+    public void Apply(double[] values, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++)
+            values[i] = Apply(values[i]);
+    }
+
+    // single precision version of Apply, rounds the double precision result
+    public void Apply(float[] values, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++)
+            values[i] = (float) Apply(values[i]);
+    }
+
+    // getter for name of function
+    public abstract String GetName();
+
+    // getter for current function
+    public static SigmoidFunction Get()
+    {
+        return current;
+    }
+
+    // selects function by name, returns false and keeps the current function if there is no function with that name
+    public static boolean Select(String name)
+    {
+        SigmoidFunction function = Create(name);
+        if (!function.GetName().equals(name))
+            return false;
+
+        current = function;
+        return true;
+    }
+
+    // creates the named function, falling back to the default function for unknown names
+    private static SigmoidFunction Create(String name)
+    {
+        switch (name)
+        {
+            case "exact":
+                return new ExactSigmoid();
+            case "table":
+                return new TableSigmoid();
+            default:
+                return new ExpSigmoid();
+        }
+    }
+
+    // original formula, raises Math.E to a power
+    private static class ExactSigmoid extends SigmoidFunction
+    {
+        @Override
+        public double Apply(double x)
+        {
+            return 1.0 / (1.0 + Math.pow(Math.E, -x));
+        }
+
+        @Override
+        public String GetName()
+        {
+            return "exact";
+        }
+    }
+
+    // exponential function formula
+    private static class ExpSigmoid extends SigmoidFunction
+    {
+        @Override
+        public double Apply(double x)
+        {
+            return 1.0 / (1.0 + Math.exp(-x));
+        }
+
+        @Override
+        public String GetName()
+        {
+            return "exp";
+        }
+    }
+
+    // interpolated lookup table
+    private static class TableSigmoid extends SigmoidFunction
+    {
+        // table covers [-TABLE_RANGE, TABLE_RANGE] in TABLE_SIZE - 1 equal steps
+        private static final double TABLE_RANGE = 16;
+        private static final int TABLE_SIZE = 2049;
+        private static final double STEPS_PER_UNIT = (TABLE_SIZE - 1) / (2 * TABLE_RANGE);
+
+        // exact sigmoid value at each step
+        private final double[] table = new double[TABLE_SIZE];
+
+        TableSigmoid()
+        {
+            for (int i = 0; i < TABLE_SIZE; i++)
+                table[i] = 1.0 / (1.0 + Math.exp(TABLE_RANGE - i / STEPS_PER_UNIT));
+        }
+
+        @Override
+        public double Apply(double x)
+        {
+            // clamp to end values outside of table, NaN falls through and gives NaN
+            double position = (x + TABLE_RANGE) * STEPS_PER_UNIT;
+            if (position <= 0)
+                return table[0];
+            if (position >= TABLE_SIZE - 1)
+                return table[TABLE_SIZE - 1];
+
+            // interpolate between the steps either side of x
+            int index = (int) position;
+            double fraction = position - index;
+            return table[index] + fraction * (table[index + 1] - table[index]);
+        }
+
+        @Override
+        public String GetName()
+        {
+            return "table";
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.company;
+
+// callback told about the metrics of each training epoch, added to a network with NeuralNetwork.AddTrainingListener.
+// Listeners are called on the thread running TrainNetwork after each epoch finishes
+public interface TrainingListener
+{
+    void EpochFinished(TrainingMetrics metrics);
+}
@@ -0,0 +1,124 @@
+package com.company;
+import java.lang.management.ManagementFactory;
+
+// metrics of one training epoch. Forward and back propagation times are summed over every thread running gradient
+// shards, so with several threads they can add up to more than the elapsed time. Reduction and apply times are
+// elapsed time on the thread running TrainNetwork
+public final class TrainingMetrics
+{
+    // epoch number, starting at 1, and number of training cases run in the epoch
+    private final int epoch;
+    private final long numSamples;
+
+    // elapsed time of the epoch, not counting validation
+    private final long elapsedNanos;
+
+    // time spent in each phase of training
+    private final long forwardNanos, backPropagateNanos, reduceNanos, applyNanos;
+
+    // mean cost of the training cases over the epoch under the network's loss function, as computed while training
+    private final double loss;
+
+    // fraction of validation cases answered correctly after the epoch, NaN if there is no validation data
+    private final double validationAccuracy;
+
+    // heap bytes allocated by all threads during the epoch
+    private final long allocatedBytes;
+
+    // constructor takes every metric of the epoch
+    TrainingMetrics(int epoch, long numSamples, long elapsedNanos, long forwardNanos, long backPropagateNanos, long reduceNanos, long applyNanos,
+                    double loss, double validationAccuracy, long allocatedBytes)
+    {
+        this.epoch = epoch;
+        this.numSamples = numSamples;
+        this.elapsedNanos = elapsedNanos;
+        this.forwardNanos = forwardNanos;
+        this.backPropagateNanos = backPropagateNanos;
+        this.reduceNanos = reduceNanos;
+        this.applyNanos = applyNanos;
+        this.loss = loss;
+        this.validationAccuracy = validationAccuracy;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    // returns heap bytes allocated so far by all live threads, or 0 if the JVM does not track allocation
+    static long ReadTotalAllocatedBytes()
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return 0;
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds()))
+            total += Math.max(0, bytes);
+
+        return total;
+    }
+
+    // region Getters
+    public int GetEpoch()
+    {
+        return epoch;
+    }
+
+    public long GetNumSamples()
+    {
+        return numSamples;
+    }
+
+    public long GetElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    public double GetSamplesPerSecond()
+    {
+        return (elapsedNanos > 0) ? numSamples * 1e9 / elapsedNanos : 0;
+    }
+
+    public long GetForwardNanos()
+    {
+        return forwardNanos;
+    }
+
+    public long GetBackPropagateNanos()
+    {
+        return backPropagateNanos;
+    }
+
+    public long GetReduceNanos()
+    {
+        return reduceNanos;
+    }
+
+    public long GetApplyNanos()
+    {
+        return applyNanos;
+    }
+
+    public double GetLoss()
+    {
+        return loss;
+    }
+
+    public double GetValidationAccuracy()
+    {
+        return validationAccuracy;
+    }
+
+    public long GetAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+    // endregion
+
+    // returns the metrics as one line of text
+    @Override
+    public String toString()
+    {
+        return String.format("Epoch %d: %d samples in %.2f s (%.0f samples/s), loss %.5f%s, forward %.2f s, back propagation %.2f s, reduction %.2f s, apply %.2f s, %d KB allocated",
+                epoch, numSamples, elapsedNanos / 1e9, GetSamplesPerSecond(), loss,
+                Double.isNaN(validationAccuracy) ? "" : String.format(", validation accuracy %.2f%%", validationAccuracy * 100),
+                forwardNanos / 1e9, backPropagateNanos / 1e9, reduceNanos / 1e9, applyNanos / 1e9, allocatedBytes / 1024);
+    }
+}
@@ -0,0 +1,108 @@
+package com.company;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// training listener that publishes the metrics of the latest epoch as a JMX MBean, so training can be watched
+// with jconsole or any other JMX client. Attributes hold the metrics of the latest epoch, except TotalSamples
+// which counts every sample trained since the monitor was added to a network
+public class TrainingMonitor implements TrainingListener, TrainingMonitorMBean
+{
+    // metrics of latest epoch, null before the first epoch finishes
+    private volatile TrainingMetrics latest;
+    private volatile long totalSamples;
+
+    @Override
+    public void EpochFinished(TrainingMetrics metrics)
+    {
+        latest = metrics;
+        totalSamples += metrics.GetNumSamples();
+    }
+
+    // registers the monitor with the platform MBean server as "com.company:type=TrainingMonitor,name=<name>"
+    // returns false if registering failed
+    public boolean Register(String name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.company:type=TrainingMonitor,name=" + ObjectName.quote(name)));
+            return true;
+        }
+        catch (JMException e)
+        {
+            System.out.println("The training monitor could not be registered: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // region MBeanAttributes
+    @Override
+    public int getEpoch()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetEpoch() : 0;
+    }
+
+    @Override
+    public long getTotalSamples()
+    {
+        return totalSamples;
+    }
+
+    @Override
+    public double getSamplesPerSecond()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetSamplesPerSecond() : 0;
+    }
+
+    @Override
+    public double getLoss()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetLoss() : Double.NaN;
+    }
+
+    @Override
+    public double getValidationAccuracy()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetValidationAccuracy() : Double.NaN;
+    }
+
+    @Override
+    public long getForwardNanos()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetForwardNanos() : 0;
+    }
+
+    @Override
+    public long getBackPropagateNanos()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetBackPropagateNanos() : 0;
+    }
+
+    @Override
+    public long getReduceNanos()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetReduceNanos() : 0;
+    }
+
+    @Override
+    public long getApplyNanos()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetApplyNanos() : 0;
+    }
+
+    @Override
+    public long getAllocatedBytes()
+    {
+        TrainingMetrics metrics = latest;
+        return (metrics != null) ? metrics.GetAllocatedBytes() : 0;
+    }
+    // endregion
+}
@@ -0,0 +1,16 @@
+package com.company;
+
+// JMX management interface of TrainingMonitor, attribute getters must be named get<Attribute> for JMX to find them
+public interface TrainingMonitorMBean
+{
+    int getEpoch();
+    long getTotalSamples();
+    double getSamplesPerSecond();
+    double getLoss();
+    double getValidationAccuracy();
+    long getForwardNanos();
+    long getBackPropagateNanos();
+    long getReduceNanos();
+    long getApplyNanos();
+    long getAllocatedBytes();
+}
@@ -0,0 +1,179 @@
+package com.company;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD kernels built on the JDK vector API, processes as many doubles (or twice as many floats) per
+// instruction as the hardware's preferred vector width allows and finishes any remainder with scalar code
+public class VectorKernels extends Kernels
+{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public double Dot(double[] a, int aOffset, double[] b, int bOffset, int length)
+    {
+        // multiply-add whole vectors into one accumulator per lane
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+            sums = DoubleVector.fromArray(SPECIES, a, aOffset + i).fma(DoubleVector.fromArray(SPECIES, b, bOffset + i), sums);
+
+        // add lanes together, then the remainder
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++)
+            sum += a[aOffset + i] * b[bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public void Dot4(double[] a, int aOffset, double[] b, int bOffset, int bStride, int length, double[] results, int resultsOffset, int resultsStride)
+    {
+        int b0 = bOffset, b1 = b0 + bStride, b2 = b1 + bStride, b3 = b2 + bStride;
+
+        // each vector of a is loaded once for all four vectors of b
+        DoubleVector sums0 = DoubleVector.zero(SPECIES), sums1 = sums0, sums2 = sums0, sums3 = sums0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+        {
+            DoubleVector values = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            sums0 = values.fma(DoubleVector.fromArray(SPECIES, b, b0 + i), sums0);
+            sums1 = values.fma(DoubleVector.fromArray(SPECIES, b, b1 + i), sums1);
+            sums2 = values.fma(DoubleVector.fromArray(SPECIES, b, b2 + i), sums2);
+            sums3 = values.fma(DoubleVector.fromArray(SPECIES, b, b3 + i), sums3);
+        }
+
+        // add lanes together, then the remainder
+        double sum0 = sums0.reduceLanes(VectorOperators.ADD), sum1 = sums1.reduceLanes(VectorOperators.ADD);
+        double sum2 = sums2.reduceLanes(VectorOperators.ADD), sum3 = sums3.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++)
+        {
+            double value = a[aOffset + i];
+            sum0 += value * b[b0 + i];
+            sum1 += value * b[b1 + i];
+            sum2 += value * b[b2 + i];
+            sum3 += value * b[b3 + i];
+        }
+
+        results[resultsOffset] = sum0;
+        results[resultsOffset + resultsStride] = sum1;
+        results[resultsOffset + 2 * resultsStride] = sum2;
+        results[resultsOffset + 3 * resultsStride] = sum3;
+    }
+
+    @Override
+    public void Axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length)
+    {
+        DoubleVector alphas = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+            DoubleVector.fromArray(SPECIES, x, xOffset + i).fma(alphas, DoubleVector.fromArray(SPECIES, y, yOffset + i)).intoArray(y, yOffset + i);
+
+        for (; i < length; i++)
+            y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public float Dot(float[] a, int aOffset, float[] b, int bOffset, int length)
+    {
+        // multiply-add whole vectors into one accumulator per lane
+        FloatVector sums = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(length); i < bound; i += FLOAT_SPECIES.length())
+            sums = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i).fma(FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i), sums);
+
+        // add lanes together, then the remainder
+        float sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++)
+            sum += a[aOffset + i] * b[bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public void Dot4(float[] a, int aOffset, float[] b, int bOffset, int bStride, int length, float[] results, int resultsOffset, int resultsStride)
+    {
+        int b0 = bOffset, b1 = b0 + bStride, b2 = b1 + bStride, b3 = b2 + bStride;
+
+        // each vector of a is loaded once for all four vectors of b
+        FloatVector sums0 = FloatVector.zero(FLOAT_SPECIES), sums1 = sums0, sums2 = sums0, sums3 = sums0;
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(length); i < bound; i += FLOAT_SPECIES.length())
+        {
+            FloatVector values = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+            sums0 = values.fma(FloatVector.fromArray(FLOAT_SPECIES, b, b0 + i), sums0);
+            sums1 = values.fma(FloatVector.fromArray(FLOAT_SPECIES, b, b1 + i), sums1);
+            sums2 = values.fma(FloatVector.fromArray(FLOAT_SPECIES, b, b2 + i), sums2);
+            sums3 = values.fma(FloatVector.fromArray(FLOAT_SPECIES, b, b3 + i), sums3);
+        }
+
+        // add lanes together, then the remainder
+        float sum0 = sums0.reduceLanes(VectorOperators.ADD), sum1 = sums1.reduceLanes(VectorOperators.ADD);
+        float sum2 = sums2.reduceLanes(VectorOperators.ADD), sum3 = sums3.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++)
+        {
+            float value = a[aOffset + i];
+            sum0 += value * b[b0 + i];
+            sum1 += value * b[b1 + i];
+            sum2 += value * b[b2 + i];
+            sum3 += value * b[b3 + i];
+        }
+
+        results[resultsOffset] = sum0;
+        results[resultsOffset + resultsStride] = sum1;
+        results[resultsOffset + 2 * resultsStride] = sum2;
+        results[resultsOffset + 3 * resultsStride] = sum3;
+    }
+
+    @Override
+    public void Axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length)
+    {
+        FloatVector alphas = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(length); i < bound; i += FLOAT_SPECIES.length())
+            FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i).fma(alphas, FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i)).intoArray(y, yOffset + i);
+
+        for (; i < length; i++)
+            y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public int Dot(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+    {
+        // shape conversions between byte, short and int vectors are slow on some JVMs, so bytes are instead viewed as
+        // pairs in short lanes and sign-extended with shifts. The two products of a lane pair are added in short lanes,
+        // which cannot overflow for values in [-127, 127], then viewed as pairs in int lanes and sign-extended again
+        IntVector sums = IntVector.zero(INT_SPECIES);
+        int i = 0;
+        for (int bound = BYTE_SPECIES.loopBound(length); i < bound; i += BYTE_SPECIES.length())
+        {
+            ShortVector aPairs = ByteVector.fromArray(BYTE_SPECIES, a, aOffset + i).reinterpretAsShorts();
+            ShortVector bPairs = ByteVector.fromArray(BYTE_SPECIES, b, bOffset + i).reinterpretAsShorts();
+            ShortVector lowProducts = aPairs.lanewise(VectorOperators.LSHL, 8).lanewise(VectorOperators.ASHR, 8).mul(bPairs.lanewise(VectorOperators.LSHL, 8).lanewise(VectorOperators.ASHR, 8));
+            ShortVector highProducts = aPairs.lanewise(VectorOperators.ASHR, 8).mul(bPairs.lanewise(VectorOperators.ASHR, 8));
+
+            IntVector productPairs = lowProducts.add(highProducts).reinterpretAsInts();
+            sums = sums.add(productPairs.lanewise(VectorOperators.LSHL, 16).lanewise(VectorOperators.ASHR, 16)).add(productPairs.lanewise(VectorOperators.ASHR, 16));
+        }
+
+        // add lanes together, then the remainder
+        int sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++)
+            sum += a[aOffset + i] * b[bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public String GetName()
+    {
+        return "vector";
+    }
+}
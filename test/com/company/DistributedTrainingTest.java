@@ -0,0 +1,192 @@
+package com.company;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// checks that data-parallel training across worker processes converges. Trains a network in this process as a
+// baseline, then trains the same network with a ParameterAveragingCoordinator in this process and worker JVMs
+// launched on this host, once for each synchronization interval, and requires every distributed network to come
+// within MAX_ACCURACY_DROP percentage points of the baseline on synthetic testing data. Launching the workers takes
+// a while, so the convergence checks only run when asked for with
+//     mvn test -Ddistributed=true
+// The number of workers and epochs are set by the "distributed.workers" and "distributed.epochs" properties
+class DistributedTrainingTest
+{
+    // topology and training settings of the network trained, as used by Main
+    private static final int NUM_MID_LAYER_NODES = 30, BATCH_SIZE = 10;
+    private static final double LEARN_RATE = 3.0;
+
+    // largest drop in testing accuracy from the baseline, in percentage points, for training to count as converged
+    private static final double MAX_ACCURACY_DROP = 2.0;
+
+    // number of synthetic samples in the training and testing datasets
+    private static final int DATASET_SIZE = 10000;
+
+    // seconds to wait for a worker process to exit once training has finished
+    private static final int WORKER_EXIT_SECONDS = 60;
+
+    private static int numWorkers, numEpochs;
+
+    // synthetic testing data, the synthetic training data written to a cache file the workers load, and the
+    // accuracy of the baseline, all created by the first convergence check
+    private static NetworkInput[] testingData;
+    private static File trainingFile;
+    private static double baselineAccuracy;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10, 100})
+    void DistributedTrainingConverges(int syncInterval) throws Exception
+    {
+        assumeTrue(Boolean.getBoolean("distributed"), "Distributed training is only tested with -Ddistributed=true");
+        if (trainingFile == null)
+            TrainBaseline();
+
+        NeuralNetwork network = CreateNetwork();
+        ParameterAveragingCoordinator coordinator = new ParameterAveragingCoordinator(network, numWorkers, 0).SetSeed(1);
+        assertTrue(TrainDistributed(coordinator, syncInterval), "Distributed training with a sync interval of " + syncInterval + " failed");
+
+        double accuracy = GetAccuracy(network);
+        assertTrue(accuracy >= baselineAccuracy - MAX_ACCURACY_DROP, numWorkers + " workers with a sync interval of " + syncInterval
+                + " reached " + accuracy + "% against " + baselineAccuracy + "% trained in one process");
+    }
+
+    @Test
+    void TrainRejectsFewerThanOneEpoch()
+    {
+        ParameterAveragingCoordinator coordinator = new ParameterAveragingCoordinator(CreateNetwork(), 1, 0);
+        assertTrue(coordinator.Start());
+        try
+        {
+            assertFalse(coordinator.Train(LEARN_RATE, BATCH_SIZE, 0, 1));
+        }
+        finally
+        {
+            coordinator.Stop();
+        }
+    }
+
+    @AfterAll
+    static void DeleteTrainingFile()
+    {
+        if (trainingFile != null)
+            trainingFile.delete();
+    }
+
+    // creates the datasets and trains the baseline network in this process
+    private static void TrainBaseline() throws IOException
+    {
+        numWorkers = Integer.getInteger("distributed.workers", 3);
+        numEpochs = Integer.getInteger("distributed.epochs", 3);
+
+        NetworkInput[] trainingData = NetworkBenchmark.CreateDataset(DATASET_SIZE, 784, 1);
+        testingData = NetworkBenchmark.CreateDataset(DATASET_SIZE, 784, 2);
+        trainingFile = File.createTempFile("mnist-distributed", ".cache");
+        DatasetLoader.SaveCache(trainingData, trainingFile.getPath());
+
+        NeuralNetwork baseline = CreateNetwork();
+        baseline.TrainNetwork(trainingData, LEARN_RATE, BATCH_SIZE, numEpochs);
+        baselineAccuracy = GetAccuracy(baseline);
+    }
+
+    // trains the coordinator's network with worker JVMs launched on this host, returns false if training failed
+    private static boolean TrainDistributed(ParameterAveragingCoordinator coordinator, int syncInterval) throws Exception
+    {
+        if (!coordinator.Start())
+            return false;
+
+        List<Process> workers = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < numWorkers; i++)
+            {
+                Process worker = new ProcessBuilder(CreateWorkerCommand(coordinator.GetPort()))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                workers.add(worker);
+
+                // stop waiting for the other workers if one fails
+                worker.onExit().thenAccept(process ->
+                {
+                    if (process.exitValue() != 0)
+                        coordinator.Stop();
+                });
+            }
+
+            boolean trained = coordinator.Train(LEARN_RATE, BATCH_SIZE, numEpochs, syncInterval);
+
+            // check every worker finished, printing the results of any that failed
+            for (Process worker : workers)
+            {
+                if (!worker.waitFor(WORKER_EXIT_SECONDS, TimeUnit.SECONDS))
+                {
+                    System.out.println("A training worker did not exit");
+                    trained = false;
+                }
+                else if (worker.exitValue() != 0)
+                {
+                    System.out.println("A training worker failed: " + new String(worker.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim());
+                    trained = false;
+                }
+            }
+
+            return trained;
+        }
+        finally
+        {
+            coordinator.Stop();
+            for (Process worker : workers)
+                worker.destroy();
+        }
+    }
+
+    // returns the command running a worker JVM with the modules and heap size of this JVM. The classes are taken
+    // from where Main was loaded, as the test runner's own class path may point at a launcher jar
+    private static List<String> CreateWorkerCommand(int port) throws URISyntaxException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+            if (argument.startsWith("--add-modules") || argument.startsWith("-Xmx"))
+                command.add(argument);
+
+        command.add("-cp");
+        command.add(new File(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+        command.add("com.company.Main");
+        command.add("worker");
+        command.add("--coordinator");
+        command.add(InetAddress.getLoopbackAddress().getHostAddress() + ":" + port);
+        command.add("--train");
+        command.add(trainingFile.getPath());
+        return command;
+    }
+
+    // returns a seeded sigmoid network, the same every time
+    private static NeuralNetwork CreateNetwork()
+    {
+        return new NeuralNetwork(784, 1, NUM_MID_LAYER_NODES, 10, 1);
+    }
+
+    // returns the percentage of the testing data answered correctly
+    private static double GetAccuracy(NeuralNetwork network)
+    {
+        int numCorrect = 0;
+        for (boolean result : network.TestNetwork(testingData))
+            if (result)
+                numCorrect++;
+
+        return 100.0 * numCorrect / testingData.length;
+    }
+}
@@ -0,0 +1,141 @@
+package com.company;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// stress test of one NetworkModel shared by many threads, each running single and batched predictions at once.
+// Every output activation must be bit-identical to a single-threaded reference run, which it can only be if no
+// prediction reads or writes scratch state of another
+class NetworkModelConcurrencyTest
+{
+    // number of inputs predicted, and the size of the slices each batched prediction runs
+    private static final int NUM_INPUTS = 512, SLICE_SIZE = 37;
+
+    // number of platform threads and of virtual threads sharing the model, and passes each makes over the inputs
+    private static final int NUM_PLATFORM_THREADS = 16, NUM_VIRTUAL_THREADS = 256, NUM_PASSES = 4;
+
+    // longest time the threads of one run may take
+    private static final long TIMEOUT_SECONDS = 300;
+
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void PlatformThreadsMatchSingleThreadedRun(Precision precision) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_PLATFORM_THREADS);
+        try
+        {
+            RunConcurrently(precision, executor, NUM_PLATFORM_THREADS);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void VirtualThreadsMatchSingleThreadedRun(Precision precision) throws Exception
+    {
+        // looked up by reflection so the test still builds on Java 17, where it is skipped
+        ExecutorService executor;
+        try
+        {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException e)
+        {
+            assumeTrue(false, "Runtime has no virtual threads");
+            return;
+        }
+
+        try
+        {
+            RunConcurrently(precision, executor, NUM_VIRTUAL_THREADS);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    // runs numTasks tasks on the executor that all predict every input of one shared model, one at a time and in
+    // batched slices, checking every prediction and output activation against a single-threaded run
+    private static void RunConcurrently(Precision precision, ExecutorService executor, int numTasks) throws Exception
+    {
+        NetworkModel model = new NeuralNetwork(784, 2, 30, 10, 1, precision).CreateModel();
+        NetworkInput[] dataset = NetworkBenchmark.CreateDataset(NUM_INPUTS, 784, 1);
+        double[][] inputs = new double[NUM_INPUTS][784];
+        for (int i = 0; i < NUM_INPUTS; i++)
+            dataset[i].ReadInputValues(inputs[i]);
+
+        // single-threaded reference run of both kinds of prediction
+        int[] predictions = new int[NUM_INPUTS];
+        double[][] outputs = new double[NUM_INPUTS][model.GetNumOutputs()];
+        for (int i = 0; i < NUM_INPUTS; i++)
+            predictions[i] = model.Predict(inputs[i], outputs[i]);
+
+        double[][] batchedOutputs = new double[NUM_INPUTS][model.GetNumOutputs()];
+        int[] batchedPredictions = model.Predict(inputs, batchedOutputs, model.CreateWorkspace(SLICE_SIZE));
+
+        // every task starts at a different input and alternates between both kinds of prediction, so calls of
+        // each kind overlap on different inputs
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < numTasks; t++)
+        {
+            int firstInput = (int) ((long) t * NUM_INPUTS / numTasks);
+            tasks.add(executor.submit(() ->
+            {
+                BatchWorkspace workspace = model.CreateWorkspace(SLICE_SIZE);
+                double[] output = new double[model.GetNumOutputs()];
+                double[][] sliceInputs = new double[SLICE_SIZE][], sliceOutputs = new double[SLICE_SIZE][model.GetNumOutputs()];
+                start.await();
+
+                for (int pass = 0; pass < NUM_PASSES; pass++)
+                {
+                    for (int n = 0; n < NUM_INPUTS; n += SLICE_SIZE)
+                    {
+                        // one input at a time
+                        for (int k = n; k < Math.min(NUM_INPUTS, n + SLICE_SIZE); k++)
+                        {
+                            int i = (firstInput + k) % NUM_INPUTS;
+                            assertEquals(predictions[i], model.Predict(inputs[i], output), "prediction of input " + i);
+                            assertArrayEquals(outputs[i], output, "output activations of input " + i);
+                        }
+
+                        // a slice in one batched call
+                        int sliceSize = Math.min(SLICE_SIZE, NUM_INPUTS - n);
+                        for (int k = 0; k < sliceSize; k++)
+                            sliceInputs[k] = inputs[(firstInput + n + k) % NUM_INPUTS];
+                        int[] slicePredictions = model.Predict(Arrays.copyOf(sliceInputs, sliceSize), sliceOutputs, workspace);
+                        for (int k = 0; k < sliceSize; k++)
+                        {
+                            int i = (firstInput + n + k) % NUM_INPUTS;
+                            assertEquals(batchedPredictions[i], slicePredictions[k], "batched prediction of input " + i);
+                            assertArrayEquals(batchedOutputs[i], sliceOutputs[k], "batched output activations of input " + i);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> task : tasks)
+            task.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,89 @@
+package com.company;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import java.lang.management.ManagementFactory;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// checks that the training hot path allocates nothing per sample once it has reached steady state. Networks train
+// on the calling thread, so every byte the training path allocates is counted by the thread's allocation counter
+class TrainingAllocationTest
+{
+    // topology of the networks trained, as used by Main
+    private static final int NUM_INPUTS = 784, NUM_MID_LAYER_NODES = 30, NUM_OUTPUTS = 10;
+
+    // mini-batch size and number of mini-batches run to reach steady state before measuring, which gives the JIT
+    // compiler time to compile the hot path, and while measuring
+    private static final int BATCH_SIZE = 10, WARMUP_BATCHES = 3000, MEASURED_BATCHES = 2000;
+
+    // largest number of bytes allocated per sample that still counts as none, allowing for the odd allocation by
+    // the JVM on the thread, such as while the JIT compiler swaps in compiled code
+    private static final double MAX_BYTES_PER_SAMPLE = 1.0;
+
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void RunMiniBatchAllocatesNothingPerSample(Precision precision)
+    {
+        NeuralNetwork network = new NeuralNetwork(NUM_INPUTS, 1, NUM_MID_LAYER_NODES, NUM_OUTPUTS, 1, precision);
+        NetworkInput[] dataset = NetworkBenchmark.CreateDataset(BATCH_SIZE * 100, NUM_INPUTS, 1);
+        NetworkInput[][] miniBatches = new NetworkInput[dataset.length / BATCH_SIZE][BATCH_SIZE];
+        for (int i = 0; i < dataset.length; i++)
+            miniBatches[i / BATCH_SIZE][i % BATCH_SIZE] = dataset[i];
+
+        for (int i = 0; i < WARMUP_BATCHES; i++)
+            network.RunMiniBatch(miniBatches[i % miniBatches.length], 0.1);
+
+        long startBytes = ReadAllocatedBytes();
+        for (int i = 0; i < MEASURED_BATCHES; i++)
+            network.RunMiniBatch(miniBatches[i % miniBatches.length], 0.1);
+        double bytesPerSample = (double) (ReadAllocatedBytes() - startBytes) / (MEASURED_BATCHES * BATCH_SIZE);
+
+        assertTrue(bytesPerSample <= MAX_BYTES_PER_SAMPLE, "RunMiniBatch allocated " + bytesPerSample + " bytes per sample");
+    }
+
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void BackPropagateAllocatesNothingPerSample(Precision precision)
+    {
+        NeuralNetwork network = new NeuralNetwork(NUM_INPUTS, 1, NUM_MID_LAYER_NODES, NUM_OUTPUTS, 1, precision);
+        NetworkInput[] dataset = NetworkBenchmark.CreateDataset(100, NUM_INPUTS, 1);
+        NetworkWorkspace workspace = network.CreateWorkspace();
+
+        for (int i = 0; i < WARMUP_BATCHES * BATCH_SIZE; i++)
+            RunCase(network, dataset[i % dataset.length], workspace);
+
+        long startBytes = ReadAllocatedBytes();
+        for (int i = 0; i < MEASURED_BATCHES * BATCH_SIZE; i++)
+            RunCase(network, dataset[i % dataset.length], workspace);
+        double bytesPerSample = (double) (ReadAllocatedBytes() - startBytes) / (MEASURED_BATCHES * BATCH_SIZE);
+
+        assertTrue(bytesPerSample <= MAX_BYTES_PER_SAMPLE, "ForwardPass and BackPropagate allocated " + bytesPerSample + " bytes per sample");
+    }
+
+    // runs one case forward and back through the network, adding its gradients to the workspace's sums
+    private static void RunCase(NeuralNetwork network, NetworkInput input, NetworkWorkspace workspace)
+    {
+        if (network.GetPrecision() == Precision.DOUBLE)
+        {
+            input.ReadInputValues(workspace.inputs);
+            network.ForwardPass(workspace.inputs, workspace);
+            network.BackPropagate(workspace.inputs, input.correctOutputVector, workspace);
+        }
+        else
+        {
+            input.ReadInputValues(workspace.floatInputs, 0);
+            network.ForwardPass(workspace.floatInputs, workspace);
+            network.BackPropagate(workspace.floatInputs, input.correctOutputVector, workspace);
+        }
+    }
+
+    // returns the bytes allocated so far by the calling thread, skipping the test if the JVM cannot count them
+    private static long ReadAllocatedBytes()
+    {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean, "JVM does not count allocated bytes");
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled(), "JVM does not count allocated bytes");
+
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}